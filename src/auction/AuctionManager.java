@@ -4,6 +4,7 @@ import consensus.PoRConsensus;
 import consensus.PoWConsensus;
 import ledger.Block;
 import ledger.Blockchain;
+import ledger.MerkleProof;
 import ledger.Transaction;
 import network.NetworkEngine;
 import network.kad.KademliaID;
@@ -12,8 +13,10 @@ import util.KeyStoreUtil;
 import com.google.gson.Gson;
 
 import java.security.KeyPair;
-import java.security.Signature;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 public class AuctionManager {
@@ -125,7 +128,7 @@ public class AuctionManager {
             return false;
         }
 
-        System.out.println("[AUCTION] This node is the auction creator. Attempting to mine the block...");
+        System.out.println("[AUCTION] This node is the auction creator. Mining the block in the background...");
 
         auction.setFinished(true);
         broadcastAuctionClosure(auctionId);
@@ -142,12 +145,12 @@ public class AuctionManager {
         return true;
     }
 
-    public void closeAuction(Auction auction, KeyPair keyPair) {
+    public CompletableFuture<Block> closeAuction(Auction auction, KeyPair keyPair) {
         Bid winningBid = auction.getWinningBid();
 
         if (winningBid == null) {
             System.out.println("[AUCTION] No bid received for this auction. Nothing will be recorded in the blockchain.");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         try {
@@ -155,10 +158,7 @@ public class AuctionManager {
             String payload = String.format("{\"auctionId\":\"%s\",\"amount\":%.2f,\"trustScore\":%.2f}", auction.getAuctionId(), winningBid.getAmount(), winningBid.getTrustScore());
             long timestamp = System.currentTimeMillis();
 
-            Signature signer = Signature.getInstance("SHA256withRSA");
-            signer.initSign(keyPair.getPrivate());
-            signer.update(payload.getBytes());
-            String signature = Base64.getEncoder().encodeToString(signer.sign());
+            String signature = util.CryptoUtil.signData(Transaction.signingBytes(senderId, payload, timestamp), keyPair.getPrivate());
 
             Transaction tx = new Transaction(senderId, payload, timestamp, signature);
             tx.setPublicKey(util.CryptoUtil.publicKeyToBase64(keyPair.getPublic()));
@@ -176,42 +176,57 @@ public class AuctionManager {
                 System.out.println("[CONSENSUS] Auto-switch: trust < 0.7 — using PoW.");
             }
 
-            Block block = networkEngine.getConsensusEngine().generateNextBlock(transactions, blockchain, keyPair);
-
-            String latestHash = blockchain.getLatestBlock().getHash();
-            if (!block.getPreviousHash().equals(latestHash)) {
-                System.err.println("[BLOCKCHAIN] Warning: Detected updated blockchain during mining. Re-mining block with new previousHash...");
-                block = new Block(latestHash, transactions);
-                if (networkEngine.getConsensusEngine() instanceof PoWConsensus) {
-                    ((PoWConsensus) networkEngine.getConsensusEngine()).generateNextBlock(transactions, blockchain, keyPair);
-                } else {
-                    String blockData = latestHash + block.getTimestamp() + block.getNonce() + transactions.toString();
-                    String signature1 = util.CryptoUtil.signData(blockData.getBytes(), keyPair.getPrivate());
-                    block.setSignature(signature1);
-                    block.setPublicKey(util.CryptoUtil.publicKeyToBase64(keyPair.getPublic()));
+            return submitWinningBlock(transactions, senderId, keyPair).whenComplete((block, error) -> {
+                if (error != null) {
+                    System.err.printf("[BLOCKCHAIN] Error signing or adding transaction: %s%n", error.getMessage());
                 }
-            }
-
-            boolean success = blockchain.addBlock(block, networkEngine.getConsensusEngine(), networkEngine);
-            if (success) {
-                System.out.println("[BLOCKCHAIN] Block accepted, applying reputation reward.");
-                networkEngine.getReputationEngine().registerSuccess(senderId);
-                networkEngine.broadcastBlock(block);
-                System.out.printf("[BLOCKCHAIN] Block mined and added with %s.%n", networkEngine.getConsensusEngine().getName());
-            } else {
-                System.err.println("[BLOCKCHAIN] Failed to add block.");
-                if (networkEngine.getConsensusEngine() instanceof PoRConsensus) {
-                    System.out.printf("[REPUTATION] Penalizing local reputation of %s for rejected PoR block.%n", senderId);
-                    networkEngine.getReputationEngine().registerFailure(senderId);
-                }
-            }
-
+            });
         } catch (Exception e) {
             System.err.printf("[BLOCKCHAIN] Error signing or adding transaction: %s%n", e.getMessage());
             e.printStackTrace();
+            return CompletableFuture.failedFuture(e);
         }
     }
 
+    private CompletableFuture<Block> submitWinningBlock(List<Transaction> transactions, String senderId, KeyPair keyPair) throws Exception {
+        return networkEngine.getConsensusEngine().generateNextBlock(transactions, blockchain, keyPair)
+                .handle((block, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    boolean stale = cause instanceof CancellationException
+                            || (cause == null && !block.getPreviousHash().equals(blockchain.getLatestBlock().getHash()));
+
+                    if (stale) {
+                        System.err.println("[BLOCKCHAIN] Warning: Detected updated blockchain during mining. Re-mining block with new previousHash...");
+                        try {
+                            return submitWinningBlock(transactions, senderId, keyPair);
+                        } catch (Exception e) {
+                            return CompletableFuture.<Block>failedFuture(e);
+                        }
+                    }
+
+                    if (cause != null) {
+                        return CompletableFuture.<Block>failedFuture(cause);
+                    }
+
+                    boolean success = blockchain.addBlock(block, networkEngine.getConsensusEngine(), networkEngine);
+                    if (success) {
+                        System.out.println("[BLOCKCHAIN] Block accepted, applying reputation reward.");
+                        networkEngine.getReputationEngine().registerSuccess(senderId);
+                        networkEngine.broadcastBlock(block);
+                        System.out.printf("[BLOCKCHAIN] Block mined and added with %s.%n", networkEngine.getConsensusEngine().getName());
+                        return CompletableFuture.completedFuture(block);
+                    }
+
+                    System.err.println("[BLOCKCHAIN] Failed to add block.");
+                    if (networkEngine.getConsensusEngine() instanceof PoRConsensus) {
+                        System.out.printf("[REPUTATION] Penalizing local reputation of %s for rejected PoR block.%n", senderId);
+                        networkEngine.getReputationEngine().registerFailure(senderId);
+                    }
+                    return CompletableFuture.<Block>completedFuture(null);
+                })
+                .thenCompose(future -> future);
+    }
+
     public void broadcastBid(Bid bid) {
         if (!placeBid(bid)) {
             System.out.println("[AUCTION] Bid rejected. It will not be propagated to the network.");
@@ -221,8 +236,8 @@ public class AuctionManager {
         try {
             String payload = String.format("AuctionID:%s;Amount:%.2f;TrustScore:%.2f", bid.getAuctionId(), bid.getAmount(), bid.getTrustScore());
             long timestamp = bid.getTimestamp();
-            String message = bid.getBidderId() + payload + timestamp;
-            String signature = util.CryptoUtil.signData(message.getBytes(), networkEngine.getKeyPair().getPrivate());
+            byte[] message = Transaction.signingBytes(bid.getBidderId(), payload, timestamp);
+            String signature = util.CryptoUtil.signData(message, networkEngine.getKeyPair().getPrivate());
 
             Transaction tx = new Transaction(bid.getBidderId(), payload, timestamp, signature);
             tx.setPublicKey(networkEngine.getPublicKeyBase64());
@@ -320,7 +335,9 @@ public class AuctionManager {
                         double amount = Double.parseDouble(parts[1].split(":")[1].replace(",", "."));
                         double trust = Double.parseDouble(parts[2].split(":")[1].replace(",", "."));
                         String sender = tx.getSenderId();
-                        validBids.add(new Bid(auctionId, amount, sender, tx.getTimestamp(), trust));
+                        Bid confirmed = new Bid(auctionId, amount, sender, tx.getTimestamp(), trust);
+                        confirmed.setTransaction(tx);
+                        validBids.add(confirmed);
                         System.out.printf("[BLOCKCHAIN] Validated bid - %s -> %.2f (Trust: %.2f)%n", sender, amount, trust);
                     } catch (Exception e) {
                         System.err.println("[TRANSACTION] Error interpreting transaction: " + e.getMessage());
@@ -337,6 +354,12 @@ public class AuctionManager {
                     .orElse(null);
             if (highest != null) {
                 System.out.printf("[WINNER] %s with the bid of %.2f%n", highest.getBidderId(), highest.getAmount());
+
+                MerkleProof proof = blockchain.getInclusionProof(highest.getTransaction().getId());
+                if (proof != null) {
+                    System.out.printf("[WINNER] Inclusion proof: block %d, %d hash(es), verified=%s%n",
+                            proof.getHeight(), proof.getSiblings().size(), proof.verify(highest.getTransaction()));
+                }
             }
         }
 
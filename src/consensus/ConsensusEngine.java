@@ -6,9 +6,17 @@ import ledger.Transaction;
 
 import java.security.KeyPair;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface ConsensusEngine {
-    Block generateNextBlock(List<Transaction> txPool, Blockchain blockchain, KeyPair keyPair) throws Exception;
-    boolean validateBlock(Block block, Blockchain blockchain) throws Exception;
+    CompletableFuture<Block> generateNextBlock(List<Transaction> txPool, Blockchain blockchain, KeyPair keyPair) throws Exception;
+
+    /**
+     * Applies this engine's own rules to a block, given the chain below it, which ends with the
+     * block's parent. Structure, parent link, PoW target, keys and signatures are checked by
+     * BlockValidator before this is called and are not repeated here.
+     */
+    boolean validateBlock(Block block, List<Block> chain) throws Exception;
+
     String getName();
 }
@@ -0,0 +1,80 @@
+package consensus;
+
+import ledger.Block;
+import ledger.CanonicalCodec;
+import ledger.Hash256;
+import ledger.Transaction;
+import util.HashUtil;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-thread PoW hash rate of three header hashing paths: rebuilding the block hash per
+ * nonce, a full digest of the canonical header per nonce, and the midstate used by the Miner.
+ * Run with: java -cp bin:lib/* consensus.HashRateBenchmark [secondsPerCase]
+ */
+public class HashRateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+        Block block = new Block(Hash256.sha256("benchmark".getBytes()),
+                List.of(new Transaction("bench", "payload", System.currentTimeMillis(), "sig")));
+        block.setDifficulty(PoWConsensus.INITIAL_DIFFICULTY_BITS);
+        byte[] template = block.getCanonicalBytes().clone();
+
+        HeaderHasher hasher = new HeaderHasher(template, CanonicalCodec.BLOCK_NONCE_OFFSET);
+        for (int nonce = 0; nonce < 1000; nonce++) {
+            ByteBuffer.wrap(template).putInt(CanonicalCodec.BLOCK_NONCE_OFFSET, nonce);
+            if (!Arrays.equals(hasher.digest(nonce), HashUtil.sha256Bytes(template))) {
+                throw new IllegalStateException("Midstate digest differs from SHA-256 at nonce " + nonce);
+            }
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuffer candidate = ByteBuffer.wrap(template.clone());
+        byte[] hash = new byte[32];
+
+        run("Block.setNonce + calculateHash", seconds, nonce -> {
+            block.setNonce(nonce);
+            return block.getHash().leadingZeroBits();
+        });
+        run("MessageDigest over full header", seconds, nonce -> {
+            candidate.putInt(CanonicalCodec.BLOCK_NONCE_OFFSET, nonce);
+            digest.update(candidate.array());
+            digest.digest(hash, 0, hash.length);
+            return Hash256.of(hash).leadingZeroBits();
+        });
+        run("Midstate (Miner)", seconds, hasher::leadingZeroBits);
+    }
+
+    private static void run(String name, long seconds, Attempt attempt) throws Exception {
+        measure(attempt, 1);
+        double rate = measure(attempt, seconds);
+        System.out.printf("[BENCH] %-32s %,14.0f hashes/s%n", name, rate);
+    }
+
+    private static double measure(Attempt attempt, long seconds) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long start = System.nanoTime();
+        int nonce = 0;
+        int sink = 0;
+        long now;
+        do {
+            for (int i = 0; i < 4096; i++) {
+                sink += attempt.leadingZeroBits(nonce++);
+            }
+            now = System.nanoTime();
+        } while (now < deadline);
+        if (sink == -1) {
+            System.out.println();
+        }
+        return nonce / ((now - start) / 1e9);
+    }
+
+    private interface Attempt {
+        int leadingZeroBits(int nonce) throws Exception;
+    }
+}
@@ -0,0 +1,58 @@
+package consensus;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 over a block header for the PoW search. The 64-byte blocks in front of the nonce
+ * never change, so they are digested once into a midstate; each attempt clones that state,
+ * writes the nonce into a preallocated tail and digests only the tail.
+ * One instance per worker thread.
+ */
+final class HeaderHasher {
+
+    private static final int SHA256_BLOCK_BYTES = 64;
+
+    private final MessageDigest midstate;
+    private final byte[] tail;
+    private final int nonceOffset;
+    private final byte[] hash = new byte[32];
+
+    HeaderHasher(byte[] header, int nonceOffset) throws NoSuchAlgorithmException {
+        int prefix = (nonceOffset / SHA256_BLOCK_BYTES) * SHA256_BLOCK_BYTES;
+        this.midstate = MessageDigest.getInstance("SHA-256");
+        midstate.update(header, 0, prefix);
+        this.tail = new byte[header.length - prefix];
+        System.arraycopy(header, prefix, tail, 0, tail.length);
+        this.nonceOffset = nonceOffset - prefix;
+    }
+
+    /**
+     * Hashes the header with the given nonce and returns the number of leading zero bits of the digest.
+     */
+    int leadingZeroBits(int nonce) throws CloneNotSupportedException, DigestException {
+        hash(nonce);
+        for (int i = 0; i < hash.length; i++) {
+            if (hash[i] != 0) {
+                return i * 8 + Integer.numberOfLeadingZeros(hash[i] & 0xff) - 24;
+            }
+        }
+        return hash.length * 8;
+    }
+
+    byte[] digest(int nonce) throws CloneNotSupportedException, DigestException {
+        hash(nonce);
+        return hash.clone();
+    }
+
+    private void hash(int nonce) throws CloneNotSupportedException, DigestException {
+        tail[nonceOffset] = (byte) (nonce >>> 24);
+        tail[nonceOffset + 1] = (byte) (nonce >>> 16);
+        tail[nonceOffset + 2] = (byte) (nonce >>> 8);
+        tail[nonceOffset + 3] = (byte) nonce;
+        MessageDigest digest = (MessageDigest) midstate.clone();
+        digest.update(tail);
+        digest.digest(hash, 0, hash.length);
+    }
+}
@@ -0,0 +1,142 @@
+package consensus;
+
+import ledger.Block;
+import ledger.Hash256;
+import ledger.KeyRegistry;
+import ledger.Transaction;
+import util.HashUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Proof-of-Reputation leader schedule. Time is cut into fixed slots counted from the genesis
+ * timestamp and each slot has exactly one proposer, drawn in proportion to trust from the keys
+ * whose trust in the window before the current epoch reaches the PoR threshold. The draw is
+ * seeded by the hash of the last block before the epoch, so every node derives the same
+ * schedule from the chain alone.
+ * <p>
+ * Trust is earned on the chain the way ReputationEngine counts successes: a key starts at
+ * BASE_TRUST and gains TRUST_STEP for every block in the window, sealed by another key, that
+ * carries a transaction it signed. Both signatures are checked before a block is accepted, so
+ * no producer can grant trust to itself or rewrite anyone else's. The trustScore field of a
+ * transaction is set by its sender and is not used here.
+ */
+final class LeaderSchedule {
+
+    static final long SLOT_MS = Long.getLong("por.slotMs", 1000L);
+    private static final int EPOCH_BLOCKS = Integer.getInteger("por.epochBlocks", 32);
+    private static final int WINDOW_BLOCKS = Integer.getInteger("por.windowBlocks", 256);
+    private static final int CACHE_SIZE = 8;
+    private static final double BASE_TRUST = 0.5;
+    private static final double TRUST_STEP = 0.05;
+
+    private static final Map<Hash256, LeaderSchedule> cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Hash256, LeaderSchedule> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private final Hash256 seed;
+    private final String[] proposers;
+    private final double[] cumulativeTrust;
+
+    private LeaderSchedule(Hash256 seed, Map<String, Double> trust) {
+        this.seed = seed;
+        this.proposers = trust.keySet().toArray(new String[0]);
+        this.cumulativeTrust = new double[proposers.length];
+        double total = 0;
+        for (int i = 0; i < proposers.length; i++) {
+            total += trust.get(proposers[i]);
+            cumulativeTrust[i] = total;
+        }
+    }
+
+    /**
+     * The schedule for the block at the given height of the chain. Empty during the first epoch,
+     * or while no trusted key has transacted in the window.
+     */
+    static LeaderSchedule forHeight(List<Block> chain, int height) {
+        int epochStart = (height / EPOCH_BLOCKS) * EPOCH_BLOCKS;
+        Hash256 seed = chain.get(Math.max(0, epochStart - 1)).getHash();
+        LeaderSchedule schedule = cache.get(seed);
+        if (schedule == null) {
+            Map<String, Integer> endorsements = new TreeMap<>();
+            for (int h = Math.max(0, epochStart - WINDOW_BLOCKS); h < epochStart; h++) {
+                Block block = chain.get(h);
+                String sealer = keyIdOf(block.getPublicKey(), block.getKeyId());
+                Set<String> senders = new HashSet<>();
+                for (Transaction tx : block.getTransactions()) {
+                    String keyId = keyIdOf(tx.getPublicKey(), tx.getKeyId());
+                    if (keyId != null && !keyId.equals(sealer)) {
+                        senders.add(keyId);
+                    }
+                }
+                senders.forEach(keyId -> endorsements.merge(keyId, 1, Integer::sum));
+            }
+            Map<String, Double> trust = new TreeMap<>();
+            endorsements.forEach((keyId, count) -> {
+                double score = Math.min(1.0, BASE_TRUST + count * TRUST_STEP);
+                if (score >= PoRConsensus.TRUST_THRESHOLD) {
+                    trust.put(keyId, score);
+                }
+            });
+            schedule = new LeaderSchedule(seed, trust);
+            cache.put(seed, schedule);
+        }
+        return schedule;
+    }
+
+    static long slotOf(long timestamp, Block genesis) {
+        return Math.floorDiv(timestamp - genesis.getTimestamp(), SLOT_MS);
+    }
+
+    static long slotStart(long slot, Block genesis) {
+        return genesis.getTimestamp() + slot * SLOT_MS;
+    }
+
+    static String keyIdOf(String publicKey, String keyId) {
+        if (keyId != null) {
+            return keyId;
+        }
+        return publicKey == null ? null : KeyRegistry.keyId(publicKey);
+    }
+
+    boolean isEmpty() {
+        return proposers.length == 0;
+    }
+
+    int size() {
+        return proposers.length;
+    }
+
+    String leader(long slot) {
+        byte[] digest = HashUtil.sha256Bytes(seed.toBytes(), ByteBuffer.allocate(Long.BYTES).putLong(slot).array());
+        double point = (ByteBuffer.wrap(digest).getLong() >>> 11) * 0x1.0p-53 * cumulativeTrust[proposers.length - 1];
+        for (int i = 0; i < proposers.length - 1; i++) {
+            if (point < cumulativeTrust[i]) {
+                return proposers[i];
+            }
+        }
+        return proposers[proposers.length - 1];
+    }
+
+    /**
+     * The first slot from the given one, within the lookahead, that the key leads, or -1.
+     */
+    long nextSlot(String keyId, long from, int lookahead) {
+        for (long slot = from; slot < from + lookahead; slot++) {
+            if (leader(slot).equals(keyId)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+}
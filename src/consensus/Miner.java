@@ -0,0 +1,142 @@
+package consensus;
+
+import ledger.Block;
+import ledger.CanonicalCodec;
+import ledger.Hash256;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Proof-of-Work search spread over a fixed worker pool. Worker i tries nonces
+ * i, i + n, i + 2n, ... over all 2^32 values and the first one to hit the target seals the block.
+ * If none does, the block is re-stamped with a later timestamp and the search starts over.
+ * Each worker hashes from a midstate of the constant header prefix (see HeaderHasher).
+ * Jobs are keyed by previousHash so a competing block can abort them.
+ */
+public class Miner {
+
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+    private static final Miner DEFAULT = new Miner(
+            Integer.getInteger("pow.workers", Runtime.getRuntime().availableProcessors()));
+
+    private final int workerCount;
+    private final ExecutorService workers;
+    private final Map<Hash256, Set<MiningJob>> activeJobs = new ConcurrentHashMap<>();
+
+    public Miner(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "pow-miner-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Miner getDefault() {
+        return DEFAULT;
+    }
+
+    public CompletableFuture<Block> mine(Block block, int difficultyBits) {
+        if (block.getDifficulty() != difficultyBits) {
+            block.setDifficulty(difficultyBits);
+        }
+        MiningJob job = new MiningJob(block, difficultyBits, workers);
+        activeJobs.computeIfAbsent(block.getPreviousHash(), k -> ConcurrentHashMap.newKeySet()).add(job);
+        job.future.whenComplete((result, error) -> {
+            Set<MiningJob> jobs = activeJobs.get(block.getPreviousHash());
+            if (jobs != null) {
+                jobs.remove(job);
+                if (jobs.isEmpty()) {
+                    activeJobs.remove(block.getPreviousHash(), jobs);
+                }
+            }
+        });
+
+        for (int i = 0; i < workerCount; i++) {
+            int start = i;
+            workers.execute(() -> job.search(start, workerCount));
+        }
+        return job.future;
+    }
+
+    /**
+     * Aborts every search that is still extending the given previousHash.
+     */
+    public void cancel(Hash256 previousHash) {
+        Set<MiningJob> jobs = activeJobs.remove(previousHash);
+        if (jobs == null) {
+            return;
+        }
+        for (MiningJob job : jobs) {
+            if (job.future.completeExceptionally(new CancellationException("Competing block received for " + previousHash))) {
+                System.out.println("[CONSENSUS] Mining aborted: a block extending " + previousHash + " was accepted.");
+            }
+        }
+    }
+
+    public static boolean meetsTarget(Hash256 hash, int bits) {
+        return hash != null && hash.leadingZeroBits() >= bits;
+    }
+
+    private static class MiningJob {
+        private final Block block;
+        private final int difficultyBits;
+        private final ExecutorService workers;
+        private volatile byte[] template;
+        private final AtomicInteger exhaustedWorkers = new AtomicInteger();
+        private final AtomicBoolean sealed = new AtomicBoolean(false);
+        private final CompletableFuture<Block> future = new CompletableFuture<>();
+
+        MiningJob(Block block, int difficultyBits, ExecutorService workers) {
+            this.block = block;
+            this.difficultyBits = difficultyBits;
+            this.workers = workers;
+            this.template = block.getCanonicalBytes();
+        }
+
+        void search(int start, int stride) {
+            try {
+                HeaderHasher hasher = new HeaderHasher(template, CanonicalCodec.BLOCK_NONCE_OFFSET);
+
+                long attempts = 0;
+                for (long nonce = start; nonce <= 0xFFFFFFFFL; nonce += stride) {
+                    if (++attempts % CANCEL_CHECK_INTERVAL == 0 && future.isDone()) {
+                        return;
+                    }
+
+                    if (hasher.leadingZeroBits((int) nonce) >= difficultyBits) {
+                        if (sealed.compareAndSet(false, true) && !future.isDone()) {
+                            block.setNonce((int) nonce);
+                            future.complete(block);
+                        }
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                return;
+            }
+
+            // The last worker to finish starts the next round; no other worker is still reading the block.
+            if (exhaustedWorkers.incrementAndGet() == stride && !future.isDone()) {
+                exhaustedWorkers.set(0);
+                block.setTimestamp(Math.max(System.currentTimeMillis(), block.getTimestamp() + 1));
+                template = block.getCanonicalBytes();
+                System.out.println("[CONSENSUS] Nonce space exhausted; re-stamped block at " + block.getTimestamp() + ".");
+                for (int i = 0; i < stride; i++) {
+                    int next = i;
+                    workers.execute(() -> search(next, stride));
+                }
+            }
+        }
+    }
+}
@@ -2,67 +2,146 @@ package consensus;
 
 import ledger.Block;
 import ledger.Blockchain;
+import ledger.Hash256;
+import ledger.KeyRegistry;
 import ledger.Transaction;
 import util.CryptoUtil;
 
 import java.security.KeyPair;
-import java.security.PublicKey;
 import java.util.List;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proof-of-Reputation. Once keys have earned trust on the chain, blocks are sealed by the
+ * leader of their slot (see LeaderSchedule) with the slot's start as timestamp, so one proposer
+ * extends each tip and nothing is mined. Before that, any node whose first transaction carries
+ * a trust score above the threshold may seal the next block.
+ */
 public class PoRConsensus implements ConsensusEngine {
 
-    private static final double TRUST_THRESHOLD = 0.7;
+    static final double TRUST_THRESHOLD = 0.7;
+    // How far ahead a node looks for a slot of its own before waiting for the tip to move instead.
+    private static final int LOOKAHEAD_SLOTS = Integer.getInteger("por.lookaheadSlots", 64);
+    // Clock skew tolerated for a block stamped with a slot that has not started locally.
+    private static final long MAX_DRIFT_MS = Long.getLong("por.maxDriftMs", LeaderSchedule.SLOT_MS);
+
+    private static final ScheduledExecutorService slotTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "por-slots");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @Override
-    public Block generateNextBlock(List<Transaction> txPool, Blockchain blockchain, KeyPair keyPair) throws Exception {
-        String previousHash = blockchain.getLatestBlock().getHash();
-        Block block = new Block(previousHash, txPool);
+    public CompletableFuture<Block> generateNextBlock(List<Transaction> txPool, Blockchain blockchain, KeyPair keyPair) throws Exception {
+        List<Block> chain = blockchain.getChain();
+        Block parent = chain.get(chain.size() - 1);
+        LeaderSchedule schedule = LeaderSchedule.forHeight(chain, chain.size());
+        if (schedule.isEmpty()) {
+            return CompletableFuture.completedFuture(seal(parent.getHash(), txPool, System.currentTimeMillis(), blockchain, keyPair));
+        }
+
+        Block genesis = chain.get(0);
+        long from = Math.max(LeaderSchedule.slotOf(parent.getTimestamp(), genesis) + 1,
+                LeaderSchedule.slotOf(System.currentTimeMillis(), genesis));
+        String keyId = KeyRegistry.keyId(CryptoUtil.publicKeyToBase64(keyPair.getPublic()));
+        long slot = schedule.nextSlot(keyId, from, LOOKAHEAD_SLOTS);
+        if (slot >= 0) {
+            System.out.printf("[CONSENSUS] PoR: proposing block %d in slot %d (%d trusted proposer(s)).%n",
+                    chain.size(), slot, schedule.size());
+        }
+
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        awaitSlot(future, parent.getHash(), genesis, slot, slot >= 0 ? slot : from + LOOKAHEAD_SLOTS, txPool, blockchain, keyPair);
+        return future;
+    }
+
+    // Wakes once per slot, so a block from an earlier leader releases the wait as soon as it lands.
+    private void awaitSlot(CompletableFuture<Block> future, Hash256 parentHash, Block genesis, long slot, long until,
+                           List<Transaction> txPool, Blockchain blockchain, KeyPair keyPair) {
+        if (!blockchain.getLatestBlock().getHash().equals(parentHash)) {
+            future.completeExceptionally(new CancellationException("Competing block received for " + parentHash));
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long current = LeaderSchedule.slotOf(now, genesis);
+        if (current < until) {
+            long delay = LeaderSchedule.slotStart(current + 1, genesis) - now;
+            slotTimer.schedule(() -> awaitSlot(future, parentHash, genesis, slot, until, txPool, blockchain, keyPair),
+                    delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (slot < 0) {
+            future.completeExceptionally(new CancellationException("Not scheduled to propose in the next " + LOOKAHEAD_SLOTS + " slots"));
+        } else if (current > slot) {
+            future.completeExceptionally(new CancellationException("Missed PoR slot " + slot));
+        } else {
+            try {
+                future.complete(seal(parentHash, txPool, LeaderSchedule.slotStart(slot, genesis), blockchain, keyPair));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Block seal(Hash256 previousHash, List<Transaction> txPool, long timestamp, Blockchain blockchain, KeyPair keyPair) throws Exception {
+        Block block = new Block(previousHash, KeyRegistry.compact(txPool, blockchain), timestamp);
 
-        String canonicalData = block.getCanonicalData();
-        String signature = CryptoUtil.signData(canonicalData.getBytes(), keyPair.getPrivate());
+        String signature = CryptoUtil.signData(block.getCanonicalBytes(), keyPair.getPrivate());
 
         block.setSignature(signature);
-        block.setPublicKey(CryptoUtil.publicKeyToBase64(keyPair.getPublic()));
+        KeyRegistry.attach(block, CryptoUtil.publicKeyToBase64(keyPair.getPublic()), blockchain);
 
         return block;
     }
 
     @Override
-    public boolean validateBlock(Block block, Blockchain blockchain) throws Exception {
-        List<Transaction> transactions = block.getTransactions();
-
-        if (transactions == null || transactions.isEmpty()) {
-            System.err.println("[CONSENSUS] PoR block rejected: no transactions.");
-            return false;
+    public boolean validateBlock(Block block, List<Block> chain) throws Exception {
+        if (block.getDifficulty() > 0) {
+            // Mined while this node or its peers ran PoW; the TARGET stage has held it to the PoW rules.
+            return true;
         }
 
-        Transaction first = transactions.get(0);
-        double trust = first.getTrustScore();
+        Block parent = chain.get(chain.size() - 1);
+        LeaderSchedule schedule = LeaderSchedule.forHeight(chain, chain.size());
+        if (schedule.isEmpty()) {
+            return validateFirstTransaction(block.getTransactions().get(0));
+        }
 
-        if (trust < TRUST_THRESHOLD) {
-            System.err.printf("[CONSENSUS] PoR block rejected: trustScore %.2f < threshold %.2f%n", trust, TRUST_THRESHOLD);
+        Block genesis = chain.get(0);
+        long slot = LeaderSchedule.slotOf(block.getTimestamp(), genesis);
+        if (slot <= LeaderSchedule.slotOf(parent.getTimestamp(), genesis)) {
+            System.err.printf("[CONSENSUS] PoR block rejected: slot %d does not follow its parent's.%n", slot);
             return false;
         }
-
-        try {
-            PublicKey pubKey = CryptoUtil.base64ToPublicKey(first.getPublicKey());
-            if (!first.verifySignature(pubKey)) {
-                System.err.println("[CONSENSUS] PoR block rejected: signature invalid.");
-                return false;
-            }
-        } catch (Exception e) {
-            System.err.println("[CONSENSUS] PoR block rejected: failed to parse public key - " + e.getMessage());
+        if (block.getTimestamp() > System.currentTimeMillis() + MAX_DRIFT_MS) {
+            System.err.printf("[CONSENSUS] PoR block rejected: slot %d has not started yet.%n", slot);
             return false;
         }
-
-        if (!block.getPreviousHash().equals(blockchain.getLatestBlock().getHash())) {
-            System.err.println("[CONSENSUS] PoR block rejected: previous hash mismatch.");
+        String producer = LeaderSchedule.keyIdOf(block.getPublicKey(), block.getKeyId());
+        String leader = schedule.leader(slot);
+        if (!leader.equals(producer)) {
+            System.err.printf("[CONSENSUS] PoR block rejected: sealed by %s, but slot %d belongs to %s.%n", producer, slot, leader);
             return false;
         }
 
         return true;
     }
 
+    private boolean validateFirstTransaction(Transaction first) {
+        double trust = first.getTrustScore();
+
+        if (trust < TRUST_THRESHOLD) {
+            System.err.printf("[CONSENSUS] PoR block rejected: trustScore %.2f < threshold %.2f%n", trust, TRUST_THRESHOLD);
+            return false;
+        }
+        // Its signature was verified with the rest of the block's in the SIGNATURES stage.
+        return true;
+    }
+
     @Override
     public String getName() {
         return "Proof-of-Reputation";
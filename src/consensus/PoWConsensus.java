@@ -2,50 +2,89 @@ package consensus;
 
 import ledger.Block;
 import ledger.Blockchain;
+import ledger.BlockValidator;
+import ledger.Hash256;
+import ledger.KeyRegistry;
 import ledger.Transaction;
 import util.CryptoUtil;
 
 import java.security.KeyPair;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PoWConsensus implements ConsensusEngine {
 
-    private static final int DIFFICULTY = 4;
+    // Consensus parameters: every node must run with the same values.
+    public static final int INITIAL_DIFFICULTY_BITS = Integer.getInteger("pow.initialBits", 16);
+    private static final int RETARGET_INTERVAL = Integer.getInteger("pow.retargetInterval", 16);
+    private static final long TARGET_BLOCK_MS = Long.getLong("pow.targetBlockMs", 1000L);
+    private static final int MIN_DIFFICULTY_BITS = Integer.getInteger("pow.minBits", 8);
+    private static final int MAX_DIFFICULTY_BITS = Integer.getInteger("pow.maxBits", 32);
+    // Each extra bit doubles the expected work, so a single retarget moves it by at most 4x.
+    private static final int MAX_STEP_BITS = 2;
 
     @Override
-    public Block generateNextBlock(List<Transaction> txPool, Blockchain blockchain, KeyPair keyPair) throws Exception {
-        String previousHash = blockchain.getLatestBlock().getHash();
-        Block block = new Block(previousHash, txPool);
-        block.mineBlock(DIFFICULTY);
+    public CompletableFuture<Block> generateNextBlock(List<Transaction> txPool, Blockchain blockchain, KeyPair keyPair) throws Exception {
+        List<Block> chain = blockchain.getChain();
+        Hash256 previousHash = chain.get(chain.size() - 1).getHash();
+        long timestamp = Math.max(System.currentTimeMillis(), BlockValidator.medianTimePast(chain, chain.size()) + 1);
+        Block block = new Block(previousHash, KeyRegistry.compact(txPool, blockchain), timestamp);
 
-        String canonicalData = block.getCanonicalData();
-        String signature = CryptoUtil.signData(canonicalData.getBytes(), keyPair.getPrivate());
+        return Miner.getDefault().mine(block, requiredBits(chain, chain.size())).thenApply(mined -> {
+            try {
+                String signature = CryptoUtil.signData(mined.getCanonicalBytes(), keyPair.getPrivate());
 
-        block.setSignature(signature);
-        block.setPublicKey(CryptoUtil.publicKeyToBase64(keyPair.getPublic()));
-
-        return block;
+                mined.setSignature(signature);
+                KeyRegistry.attach(mined, CryptoUtil.publicKeyToBase64(keyPair.getPublic()), blockchain);
+                return mined;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
     }
 
     @Override
-    public boolean validateBlock(Block block, Blockchain blockchain) throws Exception {
-        String calculatedHash = block.calculateHash();
-        String target = "0".repeat(DIFFICULTY);
+    public boolean validateBlock(Block block, List<Block> chain) throws Exception {
+        // The hash, the retargeted difficulty and its target are the whole of PoW, and the TARGET
+        // stage has already checked them, including that the block was mined at all.
+        return true;
+    }
 
-        if (block.getTransactions().isEmpty()) {
-            System.err.println("[CONSENSUS] PoW block rejected: no transactions.");
-            return false;
+    /**
+     * Leading-zero-bit target for a PoW block at the given height, from the blocks below it.
+     * The target is fixed for each run of RETARGET_INTERVAL heights. At the start of a run it is
+     * the last PoW difficulty on the chain, moved by log2(expected / actual) time taken by the
+     * previous run, where the expected time is one TARGET_BLOCK_MS per block.
+     */
+    public static int requiredBits(List<Block> chain, int height) {
+        int epochStart = (height / RETARGET_INTERVAL) * RETARGET_INTERVAL;
+        if (epochStart == 0) {
+            return INITIAL_DIFFICULTY_BITS;
         }
 
-        boolean valid = block.getHash().equals(calculatedHash)
-                && block.getHash().startsWith(target)
-                && block.getPreviousHash().equals(blockchain.getLatestBlock().getHash());
-
-        if (!valid) {
-            System.err.println("[CONSENSUS] PoW block failed validation.");
+        int bits = INITIAL_DIFFICULTY_BITS;
+        for (int h = epochStart - 1; h >= 0; h--) {
+            int difficulty = chain.get(h).getDifficulty();
+            if (difficulty > 0) {
+                bits = difficulty;
+                break;
+            }
         }
 
-        return valid;
+        // The genesis timestamp is fixed and says nothing about when mining began, so it is not measured.
+        int first = Math.max(1, epochStart - RETARGET_INTERVAL - 1);
+        int intervals = epochStart - 1 - first;
+        if (intervals <= 0) {
+            return Math.max(MIN_DIFFICULTY_BITS, Math.min(MAX_DIFFICULTY_BITS, bits));
+        }
+        long actualMs = chain.get(epochStart - 1).getTimestamp() - chain.get(first).getTimestamp();
+        long expectedMs = intervals * TARGET_BLOCK_MS;
+        int step = actualMs <= 0
+                ? MAX_STEP_BITS
+                : (int) Math.round(Math.log((double) expectedMs / actualMs) / Math.log(2));
+        step = Math.max(-MAX_STEP_BITS, Math.min(MAX_STEP_BITS, step));
+        return Math.max(MIN_DIFFICULTY_BITS, Math.min(MAX_DIFFICULTY_BITS, bits + step));
     }
 
     @Override
@@ -1,48 +1,63 @@
 package ledger;
 
-import com.google.gson.Gson;
-
+import java.math.BigInteger;
 import java.util.List;
 
 public class Block {
-    private String previousHash;
-    private String hash;
+    private Hash256 previousHash;
+    private Hash256 merkleRoot;
+    private Hash256 hash;
     private long timestamp;
+    private int difficulty;
     private int nonce;
     private List<Transaction> transactions;
     private String signature;
     private String publicKey;
+    private String keyId;
+    private transient byte[] canonicalBytes;
+
+    public Block(Hash256 previousHash, List<Transaction> transactions) {
+        this(previousHash, transactions, System.currentTimeMillis());
+    }
 
-    public Block(String previousHash, List<Transaction> transactions) {
+    public Block(Hash256 previousHash, List<Transaction> transactions, long timestamp) {
         this.previousHash = previousHash;
         this.transactions = transactions;
-        this.timestamp = System.currentTimeMillis();
+        this.merkleRoot = calculateMerkleRoot();
+        this.timestamp = timestamp;
         this.hash = calculateHash();
     }
 
-    public String calculateHash() {
-        return HashUtil.sha256(getCanonicalData());
+    public Hash256 calculateHash() {
+        return Hash256.sha256(getCanonicalBytes());
     }
 
-    public void mineBlock(int difficulty) {
-        String target = new String(new char[difficulty]).replace('\0', '0');
-        while (!hash.substring(0, difficulty).equals(target)) {
-            nonce++;
-            hash = calculateHash();
-        }
+    public Hash256 calculateMerkleRoot() {
+        return Hash256.of(MerkleTree.root(transactions));
     }
 
-    public String getCanonicalData() {
-        Gson gson = new Gson();
-        String txData = gson.toJson(transactions);
-        return previousHash + timestamp + nonce + txData;
+    /**
+     * Header bytes covered by the block hash, the PoW target and the signature.
+     * Transactions are committed through the Merkle root. Cached until the header changes.
+     */
+    public byte[] getCanonicalBytes() {
+        byte[] bytes = canonicalBytes;
+        if (bytes == null) {
+            bytes = CanonicalCodec.encodeHeader(previousHash, merkleRoot, timestamp, difficulty, nonce);
+            canonicalBytes = bytes;
+        }
+        return bytes;
     }
 
-    public String getPreviousHash() {
+    public Hash256 getPreviousHash() {
         return previousHash;
     }
 
-    public String getHash() {
+    public Hash256 getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    public Hash256 getHash() {
         return hash;
     }
 
@@ -50,10 +65,39 @@ public class Block {
         return timestamp;
     }
 
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+        this.canonicalBytes = null;
+        this.hash = calculateHash();
+    }
+
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Expected number of hashes behind this block, 2^difficulty. An unmined block counts as one.
+     */
+    public BigInteger getWork() {
+        return BigInteger.ONE.shiftLeft(Math.max(0, difficulty));
+    }
+
+    public void setDifficulty(int difficulty) {
+        this.difficulty = difficulty;
+        this.canonicalBytes = null;
+        this.hash = calculateHash();
+    }
+
     public int getNonce() {
         return nonce;
     }
 
+    public void setNonce(int nonce) {
+        this.nonce = nonce;
+        this.canonicalBytes = null;
+        this.hash = calculateHash();
+    }
+
     public List<Transaction> getTransactions() {
         return transactions;
     }
@@ -74,16 +118,31 @@ public class Block {
         this.publicKey = publicKey;
     }
 
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public void setKeyId(String keyId) {
+        this.keyId = keyId;
+    }
+
+    public String resolvePublicKey() {
+        return publicKey != null ? publicKey : KeyRegistry.resolve(keyId);
+    }
+
     @Override
     public String toString() {
         return "Block{" +
                 "previousHash='" + previousHash + '\'' +
+                ", merkleRoot='" + merkleRoot + '\'' +
                 ", hash='" + hash + '\'' +
                 ", timestamp=" + timestamp +
+                ", difficulty=" + difficulty +
                 ", nonce=" + nonce +
                 ", transactions=" + transactions +
                 ", signature='" + signature + '\'' +
                 ", publicKey='" + publicKey + '\'' +
+                ", keyId='" + keyId + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,396 @@
+package ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+
+import util.CompressionUtil;
+
+/**
+ * Append-only block log split into rolling segment files.
+ * Each record is stored as [flags|length:int][crc32c:int][payload], one record per block,
+ * and segment files are named after the height of their first record.
+ * With compression on, records are deflated using the segment's first record as a preset
+ * dictionary, so keys and field names repeated across a segment cost almost nothing.
+ * Appends are left to the OS to flush; callers decide when to sync().
+ */
+public class BlockLog implements Closeable {
+
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final int FLAG_DEFLATE = 0x80000000;
+    private static final int FLAG_DICTIONARY = 0x40000000;
+    private static final int LENGTH_MASK = 0x3FFFFFFF;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean compress;
+    private final int compressThreshold;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<RecordPosition> positions = new ArrayList<>();
+    private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+
+    private int unsyncedRecords = 0;
+    private long rawBytes = 0;
+    private long storedBytes = 0;
+
+    public BlockLog(Path directory, long segmentBytes) {
+        this(directory, segmentBytes, false, 0);
+    }
+
+    public BlockLog(Path directory, long segmentBytes, boolean compress, int compressThreshold) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.compress = compress;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * Opens every segment in height order, hands each intact record to the consumer and
+     * truncates the log at the first torn or corrupted record.
+     */
+    public void recover(Consumer<byte[]> consumer) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = listSegmentFiles();
+
+        boolean truncated = false;
+        for (Path file : files) {
+            if (truncated) {
+                Files.delete(file);
+                System.err.println("[STORAGE] Removed segment after corrupted record: " + file.getFileName());
+                continue;
+            }
+
+            Segment segment = Segment.open(file);
+            segments.add(segment);
+
+            long offset = 0;
+            long fileSize = segment.channel.size();
+            while (offset < fileSize) {
+                StoredRecord record = readRecord(segment.channel, offset, fileSize);
+                byte[] payload = record == null ? null : decodeRecord(segment, offset, record);
+                if (payload == null) {
+                    System.err.printf("[STORAGE] Torn record in %s at offset %d. Truncating %d bytes.%n",
+                            file.getFileName(), offset, fileSize - offset);
+                    segment.channel.truncate(offset);
+                    segment.channel.force(true);
+                    truncated = true;
+                    break;
+                }
+                if (offset == 0) {
+                    segment.dictionary = CompressionUtil.tail(payload, CompressionUtil.MAX_DICTIONARY_BYTES);
+                }
+                positions.add(new RecordPosition(segments.size() - 1, offset, record.bytes.length, record.flags));
+                segment.account(payload.length, record.bytes.length);
+                rawBytes += payload.length;
+                storedBytes += record.bytes.length;
+                consumer.accept(payload);
+                offset += RECORD_HEADER_BYTES + record.bytes.length;
+            }
+            segment.size = offset;
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(Segment.open(segmentPath(0)));
+        }
+    }
+
+    public int append(byte[] payload) throws IOException {
+        Segment segment = currentSegment();
+        if (segment.size > 0 && segment.size + RECORD_HEADER_BYTES + payload.length > segmentBytes) {
+            segment.channel.force(true);
+            segment = rollSegment();
+        }
+
+        byte[] stored = payload;
+        int flags = 0;
+        if (compress && payload.length >= compressThreshold) {
+            byte[] deflated = CompressionUtil.deflate(payload, segment.dictionary);
+            if (deflated.length < payload.length) {
+                stored = deflated;
+                flags = FLAG_DEFLATE | (segment.dictionary != null ? FLAG_DICTIONARY : 0);
+            }
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(stored);
+
+        header.clear();
+        header.putInt(stored.length | flags);
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        long offset = segment.size;
+        long position = offset;
+        while (header.hasRemaining()) {
+            position += segment.channel.write(header, position);
+        }
+        ByteBuffer body = ByteBuffer.wrap(stored);
+        while (body.hasRemaining()) {
+            position += segment.channel.write(body, position);
+        }
+        segment.size = position;
+        if (offset == 0) {
+            segment.dictionary = CompressionUtil.tail(payload, CompressionUtil.MAX_DICTIONARY_BYTES);
+        }
+        segment.account(payload.length, stored.length);
+        rawBytes += payload.length;
+        storedBytes += stored.length;
+
+        positions.add(new RecordPosition(segments.size() - 1, offset, stored.length, flags));
+        unsyncedRecords++;
+        return positions.size() - 1;
+    }
+
+    public byte[] read(int height) throws IOException {
+        RecordPosition pos = positions.get(height);
+        Segment segment = segments.get(pos.segment);
+        ByteBuffer buffer = ByteBuffer.allocate(pos.length);
+        long position = pos.offset + RECORD_HEADER_BYTES;
+        while (buffer.hasRemaining()) {
+            int read = segment.channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment " + segment.path.getFileName());
+            }
+            position += read;
+        }
+        byte[] payload = decodeRecord(segment, pos.offset, new StoredRecord(pos.flags, buffer.array()));
+        if (payload == null) {
+            throw new IOException("Corrupted compressed record at height " + height);
+        }
+        return payload;
+    }
+
+    /**
+     * Drops every record from the given height onwards.
+     */
+    public void truncate(int height) throws IOException {
+        if (height >= positions.size()) {
+            return;
+        }
+
+        if (height <= 0) {
+            for (Segment segment : segments) {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+            segments.clear();
+            positions.clear();
+            segments.add(Segment.open(segmentPath(0)));
+            unsyncedRecords = 0;
+            return;
+        }
+
+        RecordPosition cut = positions.get(height);
+        while (segments.size() - 1 > cut.segment) {
+            Segment removed = segments.remove(segments.size() - 1);
+            removed.channel.close();
+            Files.deleteIfExists(removed.path);
+        }
+
+        Segment segment = segments.get(cut.segment);
+        segment.channel.truncate(cut.offset);
+        segment.channel.force(true);
+        segment.size = cut.offset;
+        if (cut.offset == 0) {
+            segment.dictionary = null;
+        }
+        positions.subList(height, positions.size()).clear();
+        unsyncedRecords = 0;
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    public long offsetOf(int height) {
+        return positions.get(height).offset;
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public String compressionStats() {
+        return CompressionUtil.ratio(rawBytes, storedBytes);
+    }
+
+    public void sync() throws IOException {
+        if (unsyncedRecords > 0) {
+            currentSegment().channel.force(false);
+            unsyncedRecords = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+        segments.clear();
+    }
+
+    private Segment currentSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Segment rollSegment() throws IOException {
+        Segment sealed = currentSegment();
+        if (compress) {
+            System.out.println("[STORAGE] Sealed " + sealed.path.getFileName() + ": "
+                    + CompressionUtil.ratio(sealed.rawBytes, sealed.storedBytes));
+        }
+        Segment segment = Segment.open(segmentPath(positions.size()));
+        segments.add(segment);
+        System.out.println("[STORAGE] Rolled to new segment " + segment.path.getFileName());
+        return segment;
+    }
+
+    // Inflates a stored record; returns null if it cannot be decoded.
+    private byte[] decodeRecord(Segment segment, long offset, StoredRecord record) throws IOException {
+        if ((record.flags & FLAG_DEFLATE) == 0) {
+            return record.bytes;
+        }
+        try {
+            byte[] dictionary = null;
+            if ((record.flags & FLAG_DICTIONARY) != 0) {
+                if (offset == 0) {
+                    return null;
+                }
+                dictionary = dictionaryOf(segment);
+            }
+            return CompressionUtil.inflate(record.bytes, dictionary);
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+
+    private byte[] dictionaryOf(Segment segment) throws IOException {
+        if (segment.dictionary == null) {
+            StoredRecord first = readRecord(segment.channel, 0, segment.channel.size());
+            byte[] payload = first == null ? null : decodeRecord(segment, 0, first);
+            if (payload == null) {
+                throw new IOException("Unreadable first record in " + segment.path.getFileName());
+            }
+            segment.dictionary = CompressionUtil.tail(payload, CompressionUtil.MAX_DICTIONARY_BYTES);
+        }
+        return segment.dictionary;
+    }
+
+    private Path segmentPath(int baseHeight) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, baseHeight, SEGMENT_SUFFIX));
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private StoredRecord readRecord(FileChannel channel, long offset, long fileSize) throws IOException {
+        if (fileSize - offset < RECORD_HEADER_BYTES) {
+            return null;
+        }
+
+        ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        channel.read(head, offset);
+        head.flip();
+        int lengthAndFlags = head.getInt();
+        int checksum = head.getInt();
+        int length = lengthAndFlags & LENGTH_MASK;
+
+        if (length < 0 || length > MAX_RECORD_BYTES || fileSize - offset - RECORD_HEADER_BYTES < length) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        long position = offset + RECORD_HEADER_BYTES;
+        while (body.hasRemaining()) {
+            int read = channel.read(body, position);
+            if (read < 0) {
+                return null;
+            }
+            position += read;
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(body.array());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return new StoredRecord(lengthAndFlags & ~LENGTH_MASK, body.array());
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        private byte[] dictionary;
+        private long rawBytes;
+        private long storedBytes;
+
+        private Segment(Path path, FileChannel channel, long size) {
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        void account(long raw, long stored) {
+            rawBytes += raw;
+            storedBytes += stored;
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.size());
+        }
+    }
+
+    private static class RecordPosition {
+        private final int segment;
+        private final long offset;
+        private final int length;
+        private final int flags;
+
+        RecordPosition(int segment, long offset, int length, int flags) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.flags = flags;
+        }
+    }
+
+    private static class StoredRecord {
+        private final int flags;
+        private final byte[] bytes;
+
+        StoredRecord(int flags, byte[] bytes) {
+            this.flags = flags;
+            this.bytes = bytes;
+        }
+    }
+}
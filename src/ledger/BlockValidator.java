@@ -0,0 +1,417 @@
+package ledger;
+
+import consensus.ConsensusEngine;
+import consensus.Miner;
+import consensus.PoRConsensus;
+import consensus.PoWConsensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Validates blocks in stages ordered by cost, stopping at the first failure: structure (hash and
+ * Merkle root), link to the parent, PoW target, key references, signatures, then the consensus rules.
+ * Signature verdicts and consensus passes are memoized per block, so a block checked on receipt and
+ * again on add, or relayed by several peers, costs its RSA work once. Structure is always recomputed,
+ * since it is what ties a block's contents to the hash the memo is keyed by.
+ */
+public class BlockValidator {
+
+    private static final int MEMO_SIZE = Integer.getInteger("validator.memoSize", 4096);
+    private static final long MAX_FUTURE_MS = Long.getLong("validator.maxFutureMs", 15_000L);
+    private static final int MEDIAN_TIME_SPAN = 11;
+
+    public enum Stage {
+        STRUCTURE, LINK, TARGET, KEYS, SIGNATURES, CONSENSUS
+    }
+
+    private final Blockchain blockchain;
+    private final Map<Hash256, Memo> memo = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Hash256, Memo> eldest) {
+            return size() > MEMO_SIZE;
+        }
+    });
+
+    public BlockValidator(Blockchain blockchain) {
+        this.blockchain = blockchain;
+    }
+
+    /**
+     * Validates a block that would extend the given chain snapshot, running the consensus rules of the
+     * given engine last. The engine sees the live Blockchain, so its verdict is memoized per parent.
+     */
+    public Result validate(Block block, List<Block> chain, ConsensusEngine consensusEngine) {
+        int height = chain.size();
+        Block parent = height == 0 ? null : chain.get(height - 1);
+
+        Result result = checkStructure(block);
+        if (result.isValid() && block.getTransactions().isEmpty()) {
+            result = Result.invalid(Stage.STRUCTURE, "no transactions");
+        }
+        if (result.isValid()) {
+            result = checkLink(block, parent);
+        }
+        if (result.isValid()) {
+            result = checkTarget(block, chain, height, consensusEngine);
+        }
+        if (result.isValid()) {
+            result = checkKeys(List.of(block), height);
+        }
+        if (!result.isValid()) {
+            return result;
+        }
+
+        Memo entry = memoFor(block);
+        if (entry.signatures == null) {
+            entry.signatures = checkSignatures(List.of(block));
+        }
+        if (!entry.signatures.isValid() || consensusEngine == null) {
+            return entry.signatures;
+        }
+
+        return consensusVerdict(block, entry, chain, consensusEngine);
+    }
+
+    // The chain below a block is fixed by its parent hash, so a pass is memoized per parent and engine.
+    // Rejections are not: PoR refuses a block whose slot has not started yet, and it may pass later.
+    private Result consensusVerdict(Block block, Memo entry, List<Block> chain, ConsensusEngine consensusEngine) {
+        Hash256 parentHash = block.getPreviousHash();
+        ConsensusVerdict verdict = entry.consensus;
+        if (verdict != null && verdict.matches(parentHash, consensusEngine)) {
+            return verdict.result;
+        }
+        Result result = checkConsensus(block, chain, consensusEngine);
+        if (result.isValid()) {
+            entry.consensus = new ConsensusVerdict(parentHash, consensusEngine.getName(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Validates a contiguous run of blocks: candidate holds the chain they attach to followed by the
+     * blocks themselves, starting at fromHeight. The cheap stages run block by block, then every
+     * signature not already known to be valid is checked in one parallel batch, and finally each
+     * block is put to the engine's consensus rules against the candidate chain below it. A null
+     * engine skips that last stage and is only for replaying the node's own stored chain.
+     */
+    public Result validateRun(List<Block> candidate, int fromHeight, ConsensusEngine consensusEngine) {
+        for (int height = fromHeight; height < candidate.size(); height++) {
+            Block block = candidate.get(height);
+            Result result = checkStructure(block);
+            if (result.isValid() && height > 0 && block.getTransactions().isEmpty()) {
+                result = Result.invalid(Stage.STRUCTURE, "no transactions");
+            }
+            if (result.isValid()) {
+                result = checkLink(block, height == 0 ? null : candidate.get(height - 1));
+            }
+            if (result.isValid()) {
+                result = checkTarget(block, candidate, height, consensusEngine);
+            }
+            if (!result.isValid()) {
+                return result.at(block);
+            }
+        }
+        Result keys = checkKeys(candidate.subList(fromHeight, candidate.size()), fromHeight);
+        if (!keys.isValid()) {
+            return keys;
+        }
+
+        List<Block> unchecked = new ArrayList<>();
+        List<Memo> entries = new ArrayList<>();
+        for (Block block : candidate.subList(fromHeight, candidate.size())) {
+            Memo entry = memoFor(block);
+            if (entry.signatures == null) {
+                unchecked.add(block);
+                entries.add(entry);
+            } else if (!entry.signatures.isValid()) {
+                return entry.signatures.at(block);
+            }
+        }
+        Result result = checkSignatures(unchecked);
+        if (result.isValid()) {
+            entries.forEach(entry -> entry.signatures = Result.VALID);
+        } else {
+            if (result.block != null) {
+                memoFor(result.block).signatures = result;
+            }
+            return result;
+        }
+        if (consensusEngine == null) {
+            return Result.VALID;
+        }
+
+        for (int height = Math.max(1, fromHeight); height < candidate.size(); height++) {
+            Block block = candidate.get(height);
+            Result verdict = consensusVerdict(block, memoFor(block), candidate.subList(0, height), consensusEngine);
+            if (!verdict.isValid()) {
+                return verdict.at(block);
+            }
+        }
+        return Result.VALID;
+    }
+
+    private Result checkStructure(Block block) {
+        if (block.getHash() == null || block.getPreviousHash() == null || block.getTransactions() == null) {
+            return Result.invalid(Stage.STRUCTURE, "missing header fields");
+        }
+        if (!block.getHash().equals(block.calculateHash())) {
+            return Result.invalid(Stage.STRUCTURE, "incorrect hash");
+        }
+        // An odd Merkle level pairs its last node with itself, so [a, b, c] and [a, b, c, c] share a root.
+        // Every such twin repeats a transaction, and a block may not contain one twice.
+        Set<Hash256> ids = new HashSet<>();
+        List<Transaction> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            Hash256 id = transactions.get(i).getId();
+            if (!ids.add(id)) {
+                return Result.invalid(Stage.STRUCTURE, "duplicate transaction " + id).at(block, i);
+            }
+        }
+        if (block.getMerkleRoot() == null || !block.getMerkleRoot().equals(block.calculateMerkleRoot())) {
+            return Result.invalid(Stage.STRUCTURE, "Merkle root does not match transactions");
+        }
+        return Result.VALID;
+    }
+
+    private Result checkLink(Block block, Block parent) {
+        Hash256 expectedPrevious = parent == null ? Hash256.ZERO : parent.getHash();
+        if (!expectedPrevious.equals(block.getPreviousHash())) {
+            return Result.invalid(Stage.LINK, "previousHash does not match");
+        }
+        return Result.VALID;
+    }
+
+    // PoW blocks must carry the retargeted difficulty for their height. Unmined blocks (difficulty 0)
+    // are only accepted while PoR is the active engine, whose leader schedule then decides them.
+    // The retarget reads block timestamps, so those are bounded first.
+    private Result checkTarget(Block block, List<Block> chain, int height, ConsensusEngine consensusEngine) {
+        Result time = checkTime(block, chain, height, consensusEngine != null);
+        if (!time.isValid()) {
+            return time;
+        }
+        if (block.getDifficulty() == 0 && height > 0) {
+            if (consensusEngine == null || consensusEngine instanceof PoRConsensus) {
+                return Result.VALID;
+            }
+            return Result.invalid(Stage.TARGET, "unmined block while " + consensusEngine.getName() + " is active");
+        }
+        int required = PoWConsensus.requiredBits(chain, height);
+        if (block.getDifficulty() != required) {
+            return Result.invalid(Stage.TARGET, "difficulty " + block.getDifficulty() + " bits, expected " + required);
+        }
+        if (!Miner.meetsTarget(block.getHash(), required)) {
+            return Result.invalid(Stage.TARGET, "hash does not meet its declared difficulty");
+        }
+        return Result.VALID;
+    }
+
+    // A timestamp must pass the median of the blocks below it, and a block arriving from elsewhere may
+    // not be ahead of the local clock by more than validator.maxFutureMs. The node's own stored chain
+    // is replayed without the clock check.
+    private Result checkTime(Block block, List<Block> chain, int height, boolean checkClock) {
+        if (height == 0) {
+            return Result.VALID;
+        }
+        long medianTime = medianTimePast(chain, height);
+        if (block.getTimestamp() <= medianTime) {
+            return Result.invalid(Stage.TARGET, "timestamp " + block.getTimestamp() + " is not after median time " + medianTime);
+        }
+        if (checkClock && block.getTimestamp() > System.currentTimeMillis() + MAX_FUTURE_MS) {
+            return Result.invalid(Stage.TARGET, "timestamp " + block.getTimestamp() + " is too far in the future");
+        }
+        return Result.VALID;
+    }
+
+    /**
+     * Median timestamp of the (up to) eleven blocks below the given height. A block at that height
+     * must be timestamped after it.
+     */
+    public static long medianTimePast(List<Block> chain, int height) {
+        int from = Math.max(0, height - MEDIAN_TIME_SPAN);
+        long[] times = new long[height - from];
+        for (int i = from; i < height; i++) {
+            times[i - from] = chain.get(i).getTimestamp();
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    // A key referenced by id must be written out in full lower on the chain or earlier in the run,
+    // so that a node replaying the chain from genesis can always resolve it.
+    private Result checkKeys(List<Block> blocks, int fromHeight) {
+        Set<String> recordedHere = new HashSet<>();
+        for (Block block : blocks) {
+            List<Transaction> transactions = block.getTransactions();
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction tx = transactions.get(i);
+                Result result = checkKey(tx.getPublicKey(), tx.getKeyId(), fromHeight, recordedHere);
+                if (!result.isValid()) {
+                    return result.at(block, i);
+                }
+            }
+            Result result = checkKey(block.getPublicKey(), block.getKeyId(), fromHeight, recordedHere);
+            if (!result.isValid()) {
+                return result.at(block);
+            }
+        }
+        return Result.VALID;
+    }
+
+    private Result checkKey(String publicKey, String keyId, int fromHeight, Set<String> recordedHere) {
+        if (publicKey != null) {
+            try {
+                recordedHere.add(KeyRegistry.keyId(publicKey));
+            } catch (IllegalArgumentException e) {
+                return Result.invalid(Stage.KEYS, "public key is not valid base64");
+            }
+            return Result.VALID;
+        }
+        if (keyId != null && !recordedHere.contains(keyId) && !blockchain.isKeyRecordedBelow(keyId, fromHeight)) {
+            return Result.invalid(Stage.KEYS, "key id " + keyId + " is not recorded on the chain");
+        }
+        return Result.VALID;
+    }
+
+    private Result checkSignatures(List<Block> blocks) {
+        if (blocks.isEmpty()) {
+            return Result.VALID;
+        }
+        SignatureVerifier.Failure failure = SignatureVerifier.verifyBlocks(blocks);
+        if (failure != null) {
+            String reason = failure.getTransaction() == null
+                    ? failure.getReason()
+                    : failure.getReason() + " for tx #" + failure.getTransactionIndex() + " from " + failure.getTransaction().getSenderId();
+            return Result.invalid(Stage.SIGNATURES, reason).at(failure.getBlock(), failure.getTransactionIndex());
+        }
+        int transactions = 0;
+        for (Block block : blocks) {
+            transactions += block.getTransactions().size();
+        }
+        System.out.printf("[BLOCK] Signatures valid for %d block(s) and %d transaction(s).%n", blocks.size(), transactions);
+        return Result.VALID;
+    }
+
+    private Result checkConsensus(Block block, List<Block> chain, ConsensusEngine consensusEngine) {
+        try {
+            return consensusEngine.validateBlock(block, chain)
+                    ? Result.VALID
+                    : Result.invalid(Stage.CONSENSUS, "rejected by " + consensusEngine.getName());
+        } catch (Exception e) {
+            return Result.invalid(Stage.CONSENSUS, "error during " + consensusEngine.getName() + " validation: " + e.getMessage());
+        }
+    }
+
+    private Memo memoFor(Block block) {
+        synchronized (memo) {
+            Memo entry = memo.get(block.getHash());
+            if (entry == null || !entry.matches(block)) {
+                entry = new Memo(block);
+                memo.put(block.getHash(), entry);
+            }
+            return entry;
+        }
+    }
+
+    // The block signature and key sit outside the header hash, so they are part of the memo identity.
+    private static final class Memo {
+        private final String signature;
+        private final String publicKey;
+        private final String keyId;
+        private volatile Result signatures;
+        private volatile ConsensusVerdict consensus;
+
+        Memo(Block block) {
+            this.signature = block.getSignature();
+            this.publicKey = block.getPublicKey();
+            this.keyId = block.getKeyId();
+        }
+
+        boolean matches(Block block) {
+            return Objects.equals(signature, block.getSignature()) && Objects.equals(publicKey, block.getPublicKey())
+                    && Objects.equals(keyId, block.getKeyId());
+        }
+    }
+
+    private static final class ConsensusVerdict {
+        private final Hash256 parent;
+        private final String engine;
+        private final Result result;
+
+        ConsensusVerdict(Hash256 parent, String engine, Result result) {
+            this.parent = parent;
+            this.engine = engine;
+            this.result = result;
+        }
+
+        boolean matches(Hash256 parentHash, ConsensusEngine consensusEngine) {
+            return parent.equals(parentHash) && engine.equals(consensusEngine.getName());
+        }
+    }
+
+    public static final class Result {
+        public static final Result VALID = new Result(null, null, null, -1);
+
+        private final Stage failedStage;
+        private final String reason;
+        private final Block block;
+        private final int transactionIndex;
+
+        private Result(Stage failedStage, String reason, Block block, int transactionIndex) {
+            this.failedStage = failedStage;
+            this.reason = reason;
+            this.block = block;
+            this.transactionIndex = transactionIndex;
+        }
+
+        static Result invalid(Stage stage, String reason) {
+            return new Result(stage, reason, null, -1);
+        }
+
+        Result at(Block block) {
+            return isValid() ? this : new Result(failedStage, reason, block, transactionIndex);
+        }
+
+        Result at(Block block, int transactionIndex) {
+            return isValid() ? this : new Result(failedStage, reason, block, transactionIndex);
+        }
+
+        public boolean isValid() {
+            return failedStage == null;
+        }
+
+        public Stage getFailedStage() {
+            return failedStage;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public Block getBlock() {
+            return block;
+        }
+
+        /**
+         * Index within getBlock() of the transaction that failed, or -1 if the block as a whole did.
+         */
+        public int getTransactionIndex() {
+            return transactionIndex;
+        }
+
+        @Override
+        public String toString() {
+            if (isValid()) {
+                return "valid";
+            }
+            return failedStage + ": " + reason + (block == null ? "" : " (block " + block.getHash() + ")");
+        }
+    }
+}
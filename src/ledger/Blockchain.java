@@ -1,92 +1,158 @@
 package ledger;
 
 import consensus.ConsensusEngine;
+import consensus.Miner;
 import consensus.PoRConsensus;
 import consensus.PoWConsensus;
 import network.NetworkEngine;
-import util.CryptoUtil;
 
-import java.security.PublicKey;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Concurrency model: a single writer at a time (under writeLock) publishes immutable
+ * snapshots through a volatile field. Appends fill the next free slot of the shared array,
+ * which no published snapshot can see yet; replacing a suffix copies the array first.
+ * Readers take one volatile read and never lock. The hash and transaction indexes may run
+ * briefly ahead of or behind the snapshot, so every lookup is checked against it.
+ */
 public class Blockchain {
-    private List<Block> blockchain;
-    private int difficulty = 4;
+    // Every node starts from the same genesis block, so nodes started independently share a chain.
+    private static final long GENESIS_TIMESTAMP = 1735689600000L; // 2025-01-01T00:00:00Z
+    private static final int GENESIS_DIFFICULTY_BITS = 16;
+    private static final int GENESIS_NONCE = 17687;
 
+    private final Object writeLock = new Object();
+    private volatile Snapshot snapshot = new Snapshot(new Block[64], 0, BigInteger.ZERO);
+    private final Map<Hash256, Integer> heightByHash = new ConcurrentHashMap<>();
+    private final Map<Hash256, TxLocation> txIndex = new ConcurrentHashMap<>();
+    // Key id -> lowest height at which the full key appears on this chain.
+    private final Map<String, Integer> keyHeights = new ConcurrentHashMap<>();
+    private final BlockValidator validator = new BlockValidator(this);
+    private volatile CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+
+    /**
+     * Loads the chain from the block log. Records are CRC-checked and were validated before
+     * they were written, so only the hash links are re-checked here. A pre-log blockchain.json
+     * is imported with full validation, and a brand new node starts from the shared genesis block.
+     */
     public Blockchain() {
-        blockchain = new ArrayList<>();
-        Block genesis = new Block("0", new ArrayList<>());
-        genesis.mineBlock(difficulty);
-        blockchain.add(genesis);
+        long start = System.nanoTime();
+        Hash256 expectedPrevious = Hash256.ZERO;
+        synchronized (writeLock) {
+            for (Block block : BlockchainStorage.loadBlocks()) {
+                if (!expectedPrevious.equals(block.getPreviousHash())) {
+                    System.err.println("[BLOCKCHAIN] Stored chain breaks at height " + snapshot.size + ". Discarding the rest.");
+                    BlockchainStorage.replaceFrom(snapshot.size, new ArrayList<>());
+                    break;
+                }
+                append(block);
+                expectedPrevious = block.getHash();
+            }
+        }
+
+        if (snapshot.size == 0) {
+            List<Block> legacy = BlockchainStorage.readLegacyChain();
+            // A legacy chain holding only its own genesis has nothing worth keeping over the shared one.
+            if (legacy.size() > 1 && !importBlocks(0, legacy, null)) {
+                System.err.println("[BLOCKCHAIN] Legacy chain does not validate under the current block format. Starting a new chain.");
+            }
+            if (snapshot.size == 0) {
+                Block genesis = genesisBlock();
+                synchronized (writeLock) {
+                    append(genesis);
+                    BlockchainStorage.replaceFrom(0, List.of(genesis));
+                }
+                System.out.println("[BLOCKCHAIN] New chain started from genesis block " + genesis.getHash());
+            }
+        }
+        if (!snapshot.blocks[0].getHash().equals(genesisBlock().getHash())) {
+            System.err.println("[BLOCKCHAIN] Stored chain starts from a different genesis block. Peers on the shared genesis will not sync with it.");
+        }
+        System.out.printf("[BLOCKCHAIN] Chain ready with %d block(s) in %d ms%n",
+                snapshot.size, (System.nanoTime() - start) / 1_000_000);
     }
 
-    public boolean containsBlock(String hash) {
-        return blockchain.stream().anyMatch(b -> b.getHash().equals(hash));
+    /**
+     * The genesis block every chain starts from: no transactions, a fixed timestamp and a
+     * pre-mined nonce, so it is identical on every node.
+     */
+    public static Block genesisBlock() {
+        Block genesis = new Block(Hash256.ZERO, new ArrayList<>(), GENESIS_TIMESTAMP);
+        genesis.setDifficulty(GENESIS_DIFFICULTY_BITS);
+        genesis.setNonce(GENESIS_NONCE);
+        return genesis;
     }
 
-    public boolean addBlock(Block block, ConsensusEngine consensusEngine, NetworkEngine networkEngine) {
-        System.out.println("[BLOCK] Attempting to add a new block...");
+    public boolean containsBlock(Hash256 hash) {
+        return getHeight(hash) >= 0;
+    }
 
-        Block latestBlock = getLatestBlock();
+    public Block getBlockByHash(Hash256 hash) {
+        Snapshot current = snapshot;
+        int height = heightIn(current, hash);
+        return height < 0 ? null : current.blocks[height];
+    }
 
-        if (!latestBlock.getHash().equals(block.getPreviousHash())) {
-            System.err.println("[BLOCK] Invalid block: previousHash does not match.");
-            return false;
+    public Block getBlockByHeight(int height) {
+        Snapshot current = snapshot;
+        if (height < 0 || height >= current.size) {
+            return null;
         }
+        return current.blocks[height];
+    }
 
-        if (!block.getHash().equals(block.calculateHash())) {
-            System.err.println("[BLOCK] Invalid block: incorrect hash.");
-            return false;
-        }
+    public int getHeight(Hash256 hash) {
+        return heightIn(snapshot, hash);
+    }
 
-        try {
-            PublicKey pubKey = CryptoUtil.base64ToPublicKey(block.getPublicKey());
-            byte[] data = block.getCanonicalData().getBytes();
-            boolean valid = CryptoUtil.verifySignature(data, block.getSignature(), pubKey);
-            if (!valid) {
-                System.err.println("[BLOCK] Block signature invalid.");
-                return false;
-            } else {
-                System.out.println("[BLOCK] Block signature valid for block hash: " + block.getHash());
-            }
-        } catch (Exception e) {
-            System.err.println("[BLOCK] Error verifying block signature: " + e.getMessage());
-            return false;
-        }
+    /**
+     * Height of the tip block, from a single volatile read.
+     */
+    public int getTipHeight() {
+        return snapshot.size - 1;
+    }
 
-        for (Transaction tx : block.getTransactions()) {
-            try {
-                PublicKey txPubKey = CryptoUtil.base64ToPublicKey(tx.getPublicKey());
-                if (!tx.verifySignature(txPubKey)) {
-                    System.err.println("[TRANSACTION] Transaction signature invalid for tx from " + tx.getSenderId());
-                    return false;
-                } else {
-                    System.out.println("[TRANSACTION] Transaction signature valid for tx from " + tx.getSenderId());
-                }
-            } catch (Exception e) {
-                System.err.println("[TRANSACTION] Error verifying transaction signature: " + e.getMessage());
-                return false;
-            }
-        }
+    public TxLocation getTransactionLocation(Hash256 txId) {
+        Snapshot current = snapshot;
+        TxLocation location = txIndex.get(txId);
+        return locate(current, txId, location) == null ? null : location;
+    }
 
-        try {
-            if (!consensusEngine.validateBlock(block, this)) {
-                System.err.println("[CONSENSUS] Consensus validation failed: " + consensusEngine.getName());
-                return false;
-            }
-        } catch (Exception e) {
-            System.err.println("[CONSENSUS] Error during block validation: " + e.getMessage());
-            return false;
-        }
+    public Transaction getTransaction(Hash256 txId) {
+        return locate(snapshot, txId, txIndex.get(txId));
+    }
+
+    public boolean addBlock(Block block, ConsensusEngine consensusEngine, NetworkEngine networkEngine) {
+        return addBlock(block, validateBlock(block, consensusEngine), consensusEngine, networkEngine);
+    }
 
-        if (block.getTransactions().isEmpty()) {
-            System.err.println("[BLOCK] Block rejected: no transactions.");
+    /**
+     * Adds a block that validateBlock has already judged against the current tip, without running
+     * the pipeline again. Validation ran without the lock, so the append re-checks the tip.
+     */
+    public boolean addBlock(Block block, BlockValidator.Result result, ConsensusEngine consensusEngine, NetworkEngine networkEngine) {
+        System.out.println("[BLOCK] Attempting to add a new block...");
+        if (!result.isValid()) {
+            System.err.println("[BLOCK] Block rejected at " + result);
             return false;
         }
 
-        blockchain.add(block);
-        BlockchainStorage.saveBlockchain(blockchain);
+        synchronized (writeLock) {
+            if (!getLatestBlock().getHash().equals(block.getPreviousHash())) {
+                System.err.println("[BLOCK] Block rejected: the tip moved while it was being validated.");
+                return false;
+            }
+            append(block);
+            lastWrite = BlockchainStorage.appendBlock(block);
+        }
+        Miner.getDefault().cancel(block.getPreviousHash());
 
         System.out.println("[BLOCK] Block successfully added. Transactions:");
         for (Transaction tx : block.getTransactions()) {
@@ -116,38 +182,258 @@ public class Blockchain {
         return true;
     }
 
+    /**
+     * Runs the validation pipeline for a block extending the current tip, including the consensus rules.
+     */
+    public BlockValidator.Result validateBlock(Block block, ConsensusEngine consensusEngine) {
+        return validator.validate(block, snapshot.asList(), consensusEngine);
+    }
+
+    /**
+     * Completes once every block accepted so far is in the block log, with the same meaning of
+     * written as BlockchainStorage.appendBlock. Call it after addBlock to wait for that block.
+     */
+    public CompletableFuture<Void> whenWritten() {
+        return lastWrite;
+    }
+
     public Block getLatestBlock() {
-        return blockchain.get(blockchain.size() - 1);
+        Snapshot current = snapshot;
+        return current.blocks[current.size - 1];
     }
 
+    /**
+     * Immutable view of the chain as of this call. Later appends and reorgs do not affect it.
+     */
     public List<Block> getChain() {
-        return blockchain;
+        return snapshot.asList();
+    }
+
+    /**
+     * Total work of the current chain, the sum of Block.getWork() over every block.
+     */
+    public BigInteger getChainWork() {
+        return snapshot.work;
+    }
+
+    public static BigInteger workOf(List<Block> blocks) {
+        BigInteger work = BigInteger.ZERO;
+        for (Block block : blocks) {
+            work = work.add(block.getWork());
+        }
+        return work;
+    }
+
+    /**
+     * Block locator for sync: the last ten hashes, then exponentially sparser ones back to genesis.
+     */
+    public List<Hash256> getBlockLocator() {
+        Snapshot current = snapshot;
+        List<Hash256> locator = new ArrayList<>();
+        int step = 1;
+        for (int height = current.size - 1; height > 0; height -= step) {
+            locator.add(current.blocks[height].getHash());
+            if (locator.size() >= 10) {
+                step *= 2;
+            }
+        }
+        locator.add(current.blocks[0].getHash());
+        return locator;
     }
 
-    public void loadFromReceivedChain(List<Block> receivedChain) {
-        if (receivedChain != null && !receivedChain.isEmpty()) {
-            this.blockchain = new ArrayList<>(receivedChain);
-            System.out.println("[BLOCKCHAIN] Blockchain updated from the network. Blocks: " + blockchain.size());
-            BlockchainStorage.saveBlockchain(blockchain);
-        } else {
-            System.err.println("[BLOCKCHAIN] Received blockchain is empty or null.");
+    /**
+     * Imports a contiguous run of synced blocks starting at the given height, validated under the
+     * given engine's rules. Anything above that height is replaced, so only the changed suffix is
+     * re-indexed and rewritten on disk. The genesis block can only be imported into an empty chain.
+     */
+    public boolean importBlocks(int fromHeight, List<Block> blocks, ConsensusEngine consensusEngine) {
+        Snapshot seen = snapshot;
+        if (blocks == null || blocks.isEmpty() || fromHeight < 0 || fromHeight > seen.size) {
+            System.err.println("[BLOCKCHAIN] Received blocks do not attach to the local chain.");
+            return false;
+        }
+        if (fromHeight == 0 && seen.size > 0) {
+            System.err.println("[BLOCKCHAIN] Received blocks would replace the genesis block.");
+            return false;
+        }
+
+        Block attachTo = fromHeight == 0 ? null : seen.blocks[fromHeight - 1];
+        List<Block> candidate = new ArrayList<>(seen.asList().subList(0, fromHeight));
+        candidate.addAll(blocks);
+        BlockValidator.Result result = validator.validateRun(candidate, fromHeight, consensusEngine);
+        if (!result.isValid()) {
+            System.err.println("[BLOCKCHAIN] Imported blocks rejected at " + result);
+            return false;
+        }
+
+        Hash256 previousTip;
+        int size;
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (fromHeight > current.size || (attachTo != null && current.blocks[fromHeight - 1] != attachTo)) {
+                System.err.println("[BLOCKCHAIN] Chain changed while blocks were being validated. Import skipped.");
+                return false;
+            }
+            previousTip = current.size == 0 ? null : current.blocks[current.size - 1].getHash();
+            replaceFrom(fromHeight, blocks);
+            lastWrite = BlockchainStorage.replaceFrom(fromHeight, blocks);
+            size = snapshot.size;
+        }
+        if (previousTip != null) {
+            Miner.getDefault().cancel(previousTip);
+        }
+        System.out.printf("[BLOCKCHAIN] Imported %d block(s) from height %d. Blocks: %d%n", blocks.size(), fromHeight, size);
+        return true;
+    }
+
+    /**
+     * Builds an inclusion proof for a confirmed transaction: O(log n) sibling hashes
+     * from its leaf up to the Merkle root stored in the block header.
+     */
+    public MerkleProof getInclusionProof(Hash256 txId) {
+        Snapshot current = snapshot;
+        TxLocation location = txIndex.get(txId);
+        if (locate(current, txId, location) == null) {
+            return null;
         }
+        Block block = current.blocks[location.getHeight()];
+        List<Transaction> transactions = block.getTransactions();
+        Hash256 leafHash = Hash256.of(MerkleTree.leafHash(transactions.get(location.getIndex())));
+        return new MerkleProof(txId, block.getHash(), location.getHeight(), block.getMerkleRoot(), leafHash,
+                location.getIndex(), MerkleTree.proof(transactions, location.getIndex()), block.getCanonicalBytes());
     }
 
     public boolean containsTransaction(Transaction tx) {
-        return blockchain.stream()
-                .flatMap(block -> block.getTransactions().stream())
-                .anyMatch(existingTx ->
-                        existingTx.getSenderId().equals(tx.getSenderId()) &&
-                                existingTx.getPayload().equals(tx.getPayload()) &&
-                                existingTx.getTimestamp() == tx.getTimestamp()
-                );
+        return getTransaction(tx.getId()) != null;
+    }
+
+    public boolean isKeyRecorded(String keyId) {
+        return keyHeights.containsKey(keyId);
+    }
+
+    /**
+     * Whether the full key for this id appears on the chain below the given height.
+     */
+    public boolean isKeyRecordedBelow(String keyId, int height) {
+        Integer recordedAt = keyHeights.get(keyId);
+        return recordedAt != null && recordedAt < height;
+    }
+
+    private int heightIn(Snapshot current, Hash256 hash) {
+        Integer height = heightByHash.get(hash);
+        if (height == null || height >= current.size || !current.blocks[height].getHash().equals(hash)) {
+            return -1;
+        }
+        return height;
+    }
+
+    private static Transaction locate(Snapshot current, Hash256 txId, TxLocation location) {
+        if (location == null || location.getHeight() >= current.size) {
+            return null;
+        }
+        List<Transaction> transactions = current.blocks[location.getHeight()].getTransactions();
+        if (location.getIndex() >= transactions.size()) {
+            return null;
+        }
+        Transaction tx = transactions.get(location.getIndex());
+        return tx.getId().equals(txId) ? tx : null;
+    }
+
+    // Writer side; callers hold writeLock.
+    private void append(Block block) {
+        Snapshot current = snapshot;
+        Block[] blocks = current.blocks;
+        if (current.size == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        }
+        blocks[current.size] = block;
+        indexBlock(block, current.size);
+        snapshot = new Snapshot(blocks, current.size + 1, current.work.add(block.getWork()));
+    }
+
+    // Writer side; callers hold writeLock. Copies the array so published snapshots keep their suffix.
+    private void replaceFrom(int fromHeight, List<Block> replacement) {
+        Snapshot current = snapshot;
+        unindexFrom(current, fromHeight);
+        BigInteger work = current.work.subtract(workOf(current.asList().subList(fromHeight, current.size)));
+        Block[] blocks = Arrays.copyOf(current.blocks, Math.max(current.blocks.length, fromHeight + replacement.size()));
+        Arrays.fill(blocks, fromHeight, current.size, null);
+        int height = fromHeight;
+        for (Block block : replacement) {
+            blocks[height] = block;
+            indexBlock(block, height);
+            work = work.add(block.getWork());
+            height++;
+        }
+        snapshot = new Snapshot(blocks, height, work);
+    }
+
+    private void indexBlock(Block block, int height) {
+        heightByHash.put(block.getHash(), height);
+        recordKey(block.getPublicKey(), height);
+        List<Transaction> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction tx = transactions.get(i);
+            txIndex.put(tx.getId(), new TxLocation(height, i));
+            recordKey(tx.getPublicKey(), height);
+        }
+    }
+
+    private void recordKey(String publicKey, int height) {
+        if (publicKey != null) {
+            keyHeights.merge(KeyRegistry.register(publicKey), height, Math::min);
+        }
+    }
+
+    private void unindexFrom(Snapshot current, int height) {
+        for (int h = height; h < current.size; h++) {
+            Block block = current.blocks[h];
+            heightByHash.remove(block.getHash(), h);
+            for (Transaction tx : block.getTransactions()) {
+                txIndex.remove(tx.getId());
+            }
+        }
+        keyHeights.values().removeIf(recordedAt -> recordedAt >= height);
     }
 
     @Override
     public String toString() {
         return "Blockchain{" +
-                "chain=" + blockchain +
+                "chain=" + getChain() +
                 '}';
     }
+
+    private static final class Snapshot {
+        private final Block[] blocks;
+        private final int size;
+        private final BigInteger work;
+
+        Snapshot(Block[] blocks, int size, BigInteger work) {
+            this.blocks = blocks;
+            this.size = size;
+            this.work = work;
+        }
+
+        List<Block> asList() {
+            return Collections.unmodifiableList(Arrays.asList(blocks).subList(0, size));
+        }
+    }
+
+    public static class TxLocation {
+        private final int height;
+        private final int index;
+
+        public TxLocation(int height, int index) {
+            this.height = height;
+            this.index = index;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
 }
@@ -1,23 +1,288 @@
 package ledger;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Block persistence. Writes are queued to a single writer thread, which applies everything
+ * queued so far to the block log and syncs the whole group with one fsync. Each call returns a
+ * future that completes once its blocks are written, and flush() waits for every write queued
+ * before it. Written means synced to disk, except under ledger.fsync=OS, where the log is never
+ * synced and the future only says the blocks reached the OS.
+ */
 public class BlockchainStorage {
-    private static final String FILE_PATH = "blockchain.json";
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private static final Path LEGACY_FILE = Paths.get("blockchain.json");
+    private static final long SEGMENT_BYTES = Long.getLong("ledger.segmentBytes", 16L * 1024 * 1024);
+    private static final FsyncPolicy FSYNC_POLICY = FsyncPolicy.valueOf(System.getProperty("ledger.fsync", "GROUP"));
+    private static final int GROUP_COMMIT_SIZE = Integer.getInteger("ledger.groupCommitSize", 32);
+    // How long the writer waits for more work before committing a group that is not yet full.
+    private static final long GROUP_COMMIT_INTERVAL_MS = Long.getLong("ledger.groupCommitIntervalMs", 5L);
+    private static final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("ledger.compress", "true"));
+    private static final int COMPRESS_THRESHOLD = Integer.getInteger("ledger.compressThreshold", 256);
+    private static final int QUEUE_CAPACITY = Integer.getInteger("ledger.queueCapacity", 1024);
+    private static final Gson gson = new Gson();
 
-    public static void saveBlockchain(List<Block> blockchain) {
-        try (FileWriter writer = new FileWriter(FILE_PATH)) {
-            gson.toJson(blockchain, writer);
-            System.out.println("[BLOCKCHAIN] Blockchain saved to " + FILE_PATH);
-        } catch (IOException e) {
+    private static final BlockingQueue<WriteOp> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private static Path chainDir = Paths.get(System.getProperty("ledger.dir", "chain"));
+    private static BlockLog log;
+    private static Thread writer;
+
+    /**
+     * Points storage at a different directory. Only takes effect before the log is first opened.
+     */
+    public static synchronized void setChainDir(Path dir) {
+        if (log != null) {
+            System.err.println("[BLOCKCHAIN] Block log already open at " + chainDir + ". Ignoring new directory " + dir);
+            return;
+        }
+        chainDir = dir;
+    }
+
+    /**
+     * Reads every stored block, one log record at a time.
+     */
+    public static List<Block> loadBlocks() {
+        if (writer != null) {
+            flush();
+        }
+        List<Block> blocks = new ArrayList<>();
+        synchronized (BlockchainStorage.class) {
+            try {
+                if (log == null) {
+                    openLog(record -> blocks.add(decode(record)));
+                } else {
+                    for (int height = 0; height < log.size(); height++) {
+                        blocks.add(decode(log.read(height)));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[BLOCKCHAIN] Failed to load block log: " + e.getMessage());
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Streams blocks out of a pre-log blockchain.json, if one is present.
+     */
+    public static List<Block> readLegacyChain() {
+        List<Block> blocks = new ArrayList<>();
+        if (!Files.isRegularFile(LEGACY_FILE)) {
+            return blocks;
+        }
+        try (Reader reader = Files.newBufferedReader(LEGACY_FILE, StandardCharsets.UTF_8);
+             JsonReader json = new JsonReader(reader)) {
+            json.beginArray();
+            while (json.hasNext()) {
+                blocks.add(gson.fromJson(json, Block.class));
+            }
+            json.endArray();
+            System.out.printf("[BLOCKCHAIN] Read %d block(s) from legacy %s%n", blocks.size(), LEGACY_FILE);
+        } catch (Exception e) {
+            System.err.println("[BLOCKCHAIN] Failed to read legacy " + LEGACY_FILE + ": " + e.getMessage());
+            blocks.clear();
+        }
+        return blocks;
+    }
+
+    /**
+     * Appends one block. The future completes once it is written: synced to disk unless
+     * ledger.fsync=OS, in which case it has only been handed to the OS.
+     */
+    public static CompletableFuture<Void> appendBlock(Block block) {
+        return submit(new WriteOp(-1, List.of(block)));
+    }
+
+    /**
+     * Replaces everything from the given height onwards with the supplied blocks,
+     * leaving the common prefix on disk untouched.
+     */
+    public static CompletableFuture<Void> replaceFrom(int height, List<Block> blocks) {
+        return submit(new WriteOp(height, new ArrayList<>(blocks)));
+    }
+
+    /**
+     * Blocks until every write queued before this call is written, as for appendBlock.
+     */
+    public static void flush() {
+        try {
+            submit(new WriteOp(-1, List.of())).join();
+        } catch (Exception e) {
+            System.err.println("[BLOCKCHAIN] Flush failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finishes queued writes, closes the log and points storage at another directory, as if a
+     * different node were starting there.
+     */
+    static void reopenAt(Path dir) {
+        if (writer != null) {
+            flush();
+        }
+        synchronized (BlockchainStorage.class) {
+            close();
+            chainDir = dir;
+        }
+    }
+
+    public static synchronized String compressionStats() {
+        if (log == null) {
+            return "log not open";
+        }
+        return COMPRESS ? log.compressionStats() : "off";
+    }
+
+    private static CompletableFuture<Void> submit(WriteOp op) {
+        ensureWriter();
+        try {
+            queue.put(op);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            op.written.completeExceptionally(e);
+        }
+        return op.written;
+    }
+
+    private static synchronized void ensureWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(BlockchainStorage::runWriter, "ledger-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            flush();
+            close();
+        }));
+    }
+
+    private static void runWriter() {
+        List<WriteOp> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(queue.take());
+                queue.drainTo(group, GROUP_COMMIT_SIZE - group.size());
+                if (FSYNC_POLICY == FsyncPolicy.GROUP && group.size() < GROUP_COMMIT_SIZE) {
+                    WriteOp more = queue.poll(GROUP_COMMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (more != null) {
+                        group.add(more);
+                        queue.drainTo(group, GROUP_COMMIT_SIZE - group.size());
+                    }
+                }
+                commit(group);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private static synchronized void commit(List<WriteOp> group) {
+        int written = 0;
+        try {
+            BlockLog blockLog = openLog();
+            for (WriteOp op : group) {
+                if (op.fromHeight >= 0) {
+                    blockLog.truncate(op.fromHeight);
+                }
+                for (Block block : op.blocks) {
+                    blockLog.append(encode(block));
+                    written++;
+                }
+                if (FSYNC_POLICY == FsyncPolicy.PER_BLOCK) {
+                    blockLog.sync();
+                }
+            }
+            if (FSYNC_POLICY != FsyncPolicy.OS) {
+                blockLog.sync();
+            }
+            for (WriteOp op : group) {
+                op.written.complete(null);
+            }
+            if (written > 0) {
+                System.out.printf("[BLOCKCHAIN] Committed %d block(s) in %d write(s) to %s%n", written, group.size(), chainDir);
+            }
+        } catch (Exception e) {
             System.err.println("[BLOCKCHAIN] Failed to save blockchain: " + e.getMessage());
+            for (WriteOp op : group) {
+                op.written.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static BlockLog openLog() throws IOException {
+        return openLog(record -> { });
+    }
+
+    private static BlockLog openLog(Consumer<byte[]> consumer) throws IOException {
+        if (log == null) {
+            BlockLog blockLog = new BlockLog(chainDir, SEGMENT_BYTES, COMPRESS, COMPRESS_THRESHOLD);
+            blockLog.recover(consumer);
+            log = blockLog;
+            System.out.printf("[BLOCKCHAIN] Block log opened at %s (%d blocks, fsync=%s, compression %s)%n",
+                    chainDir, blockLog.size(), FSYNC_POLICY, COMPRESS ? blockLog.compressionStats() : "off");
+        }
+        return log;
+    }
+
+    private static synchronized void close() {
+        if (log == null) {
+            return;
+        }
+        try {
+            if (COMPRESS) {
+                System.out.println("[BLOCKCHAIN] Block log compression: " + log.compressionStats());
+            }
+            log.close();
+        } catch (IOException e) {
+            System.err.println("[BLOCKCHAIN] Failed to close block log: " + e.getMessage());
+        }
+        log = null;
+    }
+
+    private static byte[] encode(Block block) {
+        return gson.toJson(block).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Block decode(byte[] record) {
+        return gson.fromJson(new String(record, StandardCharsets.UTF_8), Block.class);
+    }
+
+    /**
+     * When the writer thread syncs the log (ledger.fsync): after each write, once per group of
+     * writes, or never, leaving it to the OS.
+     */
+    private enum FsyncPolicy {
+        PER_BLOCK,
+        GROUP,
+        OS
+    }
+
+    private static class WriteOp {
+        private final int fromHeight;
+        private final List<Block> blocks;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        WriteOp(int fromHeight, List<Block> blocks) {
+            this.fromHeight = fromHeight;
+            this.blocks = blocks;
         }
     }
 }
@@ -0,0 +1,125 @@
+package ledger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deterministic, versioned binary encoding used for hashing and signing.
+ * Integers are big-endian and strings are written as [length:int][utf-8 bytes],
+ * with a length of -1 for null.
+ */
+public final class CanonicalCodec {
+
+    public static final byte VERSION = 2;
+    public static final int HASH_BYTES = 32;
+    public static final int BLOCK_HEADER_BYTES = 1 + HASH_BYTES + HASH_BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+    public static final int BLOCK_MERKLE_ROOT_OFFSET = 1 + HASH_BYTES;
+    public static final int BLOCK_DIFFICULTY_OFFSET = BLOCK_HEADER_BYTES - 2 * Integer.BYTES;
+    public static final int BLOCK_NONCE_OFFSET = BLOCK_HEADER_BYTES - Integer.BYTES;
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final ThreadLocal<ByteBuffer> SCRATCH =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_CAPACITY));
+
+    private CanonicalCodec() {
+    }
+
+    /**
+     * Fixed-size block header: version, previousHash, merkleRoot, timestamp, difficulty, nonce.
+     * The nonce is last so miners can patch it in place.
+     */
+    public static byte[] encodeHeader(Hash256 previousHash, Hash256 merkleRoot, long timestamp, int difficulty, int nonce) {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        buffer.put(VERSION);
+        putHash(buffer, previousHash);
+        putHash(buffer, merkleRoot);
+        buffer.putLong(timestamp);
+        buffer.putInt(difficulty);
+        buffer.putInt(nonce);
+        return buffer.array();
+    }
+
+    /**
+     * Full transaction encoding, hashed into the Merkle leaves. The key id is only appended when
+     * present, so transactions that embed their full key keep their original encoding.
+     */
+    public static byte[] encodeTransaction(Transaction tx) {
+        ByteBuffer buffer = scratch();
+        buffer.put(VERSION);
+        buffer = putTransactionBody(buffer, tx.getSenderId(), tx.getPayload(), tx.getTimestamp());
+        buffer = putString(buffer, tx.getSignature());
+        buffer = putLong(buffer, Double.doubleToLongBits(tx.getTrustScore()));
+        buffer = putString(buffer, tx.getPublicKey());
+        if (tx.getKeyId() != null) {
+            buffer = putString(buffer, tx.getKeyId());
+        }
+        return toArray(buffer);
+    }
+
+    /**
+     * The part of a transaction covered by its sender's signature.
+     */
+    public static byte[] encodeTransactionBody(String senderId, String payload, long timestamp) {
+        ByteBuffer buffer = scratch();
+        buffer.put(VERSION);
+        buffer = putTransactionBody(buffer, senderId, payload, timestamp);
+        return toArray(buffer);
+    }
+
+    private static ByteBuffer putTransactionBody(ByteBuffer buffer, String senderId, String payload, long timestamp) {
+        buffer = putString(buffer, senderId);
+        buffer = putString(buffer, payload);
+        return putLong(buffer, timestamp);
+    }
+
+    // A missing hash is written as all zeroes, the same as the genesis parent.
+    private static void putHash(ByteBuffer buffer, Hash256 hash) {
+        (hash != null ? hash : Hash256.ZERO).writeTo(buffer);
+    }
+
+    private static ByteBuffer scratch() {
+        ByteBuffer buffer = SCRATCH.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        SCRATCH.set(grown);
+        return grown;
+    }
+
+    private static ByteBuffer putInt(ByteBuffer buffer, int value) {
+        buffer = ensure(buffer, Integer.BYTES);
+        buffer.putInt(value);
+        return buffer;
+    }
+
+    private static ByteBuffer putLong(ByteBuffer buffer, long value) {
+        buffer = ensure(buffer, Long.BYTES);
+        buffer.putLong(value);
+        return buffer;
+    }
+
+    private static ByteBuffer putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            return putInt(buffer, -1);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer = ensure(buffer, Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+}
@@ -0,0 +1,167 @@
+package ledger;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import util.HashUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable 32-byte SHA-256 value, used for block hashes and transaction ids.
+ * Held as four longs so equality and ordering are a handful of word compares.
+ * Serialized as a hex string, so the JSON form of blocks is the same as before.
+ */
+@JsonAdapter(Hash256.Adapter.class)
+public final class Hash256 implements Comparable<Hash256> {
+
+    public static final int BYTES = 32;
+    // Previous hash of the genesis block; older chains wrote it as "0".
+    public static final Hash256 ZERO = new Hash256(0, 0, 0, 0);
+    private static final String LEGACY_ZERO = "0";
+
+    private final long w0;
+    private final long w1;
+    private final long w2;
+    private final long w3;
+    private String hex;
+
+    private Hash256(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    public static Hash256 of(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("Expected " + BYTES + " bytes, got " + bytes.length);
+        }
+        return wrap(bytes);
+    }
+
+    static Hash256 wrap(byte[] bytes) {
+        return new Hash256(word(bytes, 0), word(bytes, 8), word(bytes, 16), word(bytes, 24));
+    }
+
+    /**
+     * SHA-256 of the concatenated parts.
+     */
+    public static Hash256 sha256(byte[]... parts) {
+        return wrap(HashUtil.sha256Bytes(parts));
+    }
+
+    public static Hash256 read(ByteBuffer buffer) {
+        return new Hash256(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Parses a 64-character hex hash. Null is ZERO; any other length is rejected.
+     */
+    public static Hash256 fromHex(String hex) {
+        if (hex == null) {
+            return ZERO;
+        }
+        if (hex.length() != BYTES * 2) {
+            throw new IllegalArgumentException("Hash must be " + BYTES * 2 + " hex characters, got " + hex.length());
+        }
+        return new Hash256(hexWord(hex, 0), hexWord(hex, 16), hexWord(hex, 32), hexWord(hex, 48));
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(BYTES).putLong(w0).putLong(w1).putLong(w2).putLong(w3).array();
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(w0).putLong(w1).putLong(w2).putLong(w3);
+    }
+
+    public int leadingZeroBits() {
+        if (w0 != 0) return Long.numberOfLeadingZeros(w0);
+        if (w1 != 0) return 64 + Long.numberOfLeadingZeros(w1);
+        if (w2 != 0) return 128 + Long.numberOfLeadingZeros(w2);
+        return 192 + Long.numberOfLeadingZeros(w3);
+    }
+
+    public boolean isZero() {
+        return (w0 | w1 | w2 | w3) == 0;
+    }
+
+    public String toHex() {
+        String h = hex;
+        if (h == null) {
+            h = HashUtil.toHex(toBytes());
+            hex = h;
+        }
+        return h;
+    }
+
+    // Unsigned, so the order matches comparing the hex strings.
+    @Override
+    public int compareTo(Hash256 other) {
+        int c = Long.compareUnsigned(w0, other.w0);
+        if (c == 0) c = Long.compareUnsigned(w1, other.w1);
+        if (c == 0) c = Long.compareUnsigned(w2, other.w2);
+        if (c == 0) c = Long.compareUnsigned(w3, other.w3);
+        return c;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Hash256)) return false;
+        Hash256 other = (Hash256) o;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    // The bytes are already uniformly distributed, so any word will do.
+    @Override
+    public int hashCode() {
+        return (int) (w3 ^ (w3 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    private static long word(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static long hexWord(String hex, int offset) {
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            value = (value << 4) | HashUtil.hexValue(hex.charAt(offset + i));
+        }
+        return value;
+    }
+
+    static class Adapter extends TypeAdapter<Hash256> {
+        @Override
+        public void write(JsonWriter out, Hash256 value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.value(value.toHex());
+            }
+        }
+
+        @Override
+        public Hash256 read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String hex = in.nextString();
+            return LEGACY_ZERO.equals(hex) ? ZERO : fromHex(hex);
+        }
+    }
+}
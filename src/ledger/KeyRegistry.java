@@ -0,0 +1,95 @@
+package ledger;
+
+import util.HashUtil;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Public keys by key id. A key is written out in full the first time it appears on the chain;
+ * later transactions and blocks carry only its id, the first 16 bytes of the SHA-256 of the
+ * encoded key. Since an id is derived from the key itself, a registered key can never be
+ * substituted for another one, whoever supplied it.
+ */
+public final class KeyRegistry {
+
+    public static final int KEY_ID_BYTES = 16;
+
+    private static final Map<String, String> keys = new ConcurrentHashMap<>();
+
+    private KeyRegistry() {
+    }
+
+    public static String keyId(String publicKey) {
+        byte[] digest = HashUtil.sha256Bytes(Base64.getDecoder().decode(publicKey));
+        return HashUtil.toHex(digest, 0, KEY_ID_BYTES);
+    }
+
+    /**
+     * Records a key and returns its id.
+     */
+    public static String register(String publicKey) {
+        String keyId = keyId(publicKey);
+        keys.putIfAbsent(keyId, publicKey);
+        return keyId;
+    }
+
+    /**
+     * The full key for an id, or null if it has not been seen on the chain.
+     */
+    public static String resolve(String keyId) {
+        return keyId == null ? null : keys.get(keyId);
+    }
+
+    public static int size() {
+        return keys.size();
+    }
+
+    /**
+     * Rewrites transactions for a block that will extend the given chain: a sender whose key is
+     * already recorded, or appears in full earlier in the same block, is referenced by id only.
+     * The sender's signature covers neither field, so either form verifies the same way.
+     */
+    public static List<Transaction> compact(List<Transaction> transactions, Blockchain blockchain) {
+        Set<String> recordedHere = new HashSet<>();
+        List<Transaction> compacted = new ArrayList<>(transactions.size());
+        for (Transaction tx : transactions) {
+            String publicKey = tx.resolvePublicKey();
+            if (publicKey == null) {
+                compacted.add(tx);
+                continue;
+            }
+            String keyId = keyId(publicKey);
+            if (blockchain.isKeyRecorded(keyId) || !recordedHere.add(keyId)) {
+                compacted.add(tx.getPublicKey() == null ? tx : tx.withKey(null, keyId));
+            } else {
+                compacted.add(tx.getKeyId() == null ? tx : tx.withKey(publicKey, null));
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Sets the producer key on a block assembled on top of the given chain, by id if it is
+     * already recorded there or in the block's own transactions.
+     */
+    public static void attach(Block block, String publicKey, Blockchain blockchain) {
+        String keyId = register(publicKey);
+        boolean recorded = blockchain.isKeyRecorded(keyId);
+        for (Transaction tx : block.getTransactions()) {
+            recorded |= publicKey.equals(tx.getPublicKey());
+        }
+        if (recorded) {
+            block.setKeyId(keyId);
+            block.setPublicKey(null);
+        } else {
+            block.setPublicKey(publicKey);
+            block.setKeyId(null);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ledger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pending transactions waiting for a block, deduplicated by transaction id.
+ * Batches are taken highest trust first, then oldest first, so PoR blocks lead with
+ * their most trusted sender.
+ */
+public class Mempool {
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingDouble((Entry e) -> e.transaction.getTrustScore()).reversed()
+            .thenComparingLong(e -> e.transaction.getTimestamp())
+            .thenComparing(e -> e.id);
+
+    private final int maxTransactions;
+    private final ConcurrentHashMap<Hash256, Entry> byId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> ordered = new ConcurrentSkipListSet<>(ORDER);
+    private final AtomicLong bytes = new AtomicLong();
+
+    public Mempool(int maxTransactions) {
+        this.maxTransactions = maxTransactions;
+    }
+
+    /**
+     * Returns false if the transaction is already pending or the pool is full.
+     */
+    public boolean add(Transaction tx) {
+        if (byId.size() >= maxTransactions) {
+            System.err.println("[MEMPOOL] Mempool full (" + maxTransactions + " transactions). Dropping tx from " + tx.getSenderId());
+            return false;
+        }
+        Entry entry = new Entry(tx);
+        if (byId.putIfAbsent(entry.id, entry) != null) {
+            return false;
+        }
+        ordered.add(entry);
+        bytes.addAndGet(entry.size);
+        return true;
+    }
+
+    /**
+     * Highest-priority pending transactions that fit in the given count and encoded size.
+     * At least one transaction is returned when the pool is not empty. Nothing is removed.
+     */
+    public List<Transaction> nextBatch(int maxCount, int maxBytes) {
+        List<Transaction> batch = new ArrayList<>();
+        int batchBytes = 0;
+        for (Entry entry : ordered) {
+            if (batch.size() >= maxCount) {
+                break;
+            }
+            if (!batch.isEmpty() && batchBytes + entry.size > maxBytes) {
+                continue;
+            }
+            batch.add(entry.transaction);
+            batchBytes += entry.size;
+        }
+        return batch;
+    }
+
+    public void removeAll(Collection<Transaction> transactions) {
+        for (Transaction tx : transactions) {
+            remove(tx.getId());
+        }
+    }
+
+    public boolean remove(Hash256 txId) {
+        Entry entry = byId.remove(txId);
+        if (entry == null) {
+            return false;
+        }
+        ordered.remove(entry);
+        bytes.addAndGet(-entry.size);
+        return true;
+    }
+
+    public boolean contains(Hash256 txId) {
+        return byId.containsKey(txId);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public long byteSize() {
+        return bytes.get();
+    }
+
+    public boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    private static class Entry {
+        private final Hash256 id;
+        private final Transaction transaction;
+        private final int size;
+
+        Entry(Transaction transaction) {
+            this.id = transaction.getId();
+            this.transaction = transaction;
+            this.size = CanonicalCodec.encodeTransaction(transaction).length;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ledger;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Proof that a transaction is in a block, checkable without the chain: the path from the
+ * transaction's leaf to the Merkle root, plus the block's canonical header. The header ties
+ * that root to the block hash and carries the difficulty the hash has to meet.
+ */
+public class MerkleProof {
+    private final Hash256 txId;
+    private final Hash256 blockHash;
+    private final int height;
+    private final Hash256 merkleRoot;
+    private final Hash256 leafHash;
+    private final int index;
+    private final List<Hash256> siblings;
+    private final byte[] header;
+
+    public MerkleProof(Hash256 txId, Hash256 blockHash, int height, Hash256 merkleRoot, Hash256 leafHash, int index,
+                       List<Hash256> siblings, byte[] header) {
+        this.txId = txId;
+        this.blockHash = blockHash;
+        this.height = height;
+        this.merkleRoot = merkleRoot;
+        this.leafHash = leafHash;
+        this.index = index;
+        this.siblings = siblings;
+        this.header = header.clone();
+    }
+
+    public boolean verify(Transaction tx) {
+        return Hash256.of(MerkleTree.leafHash(tx)).equals(leafHash) && verify();
+    }
+
+    public boolean verify() {
+        return verifyHeader() && verifyPath();
+    }
+
+    private boolean verifyHeader() {
+        if (header.length != CanonicalCodec.BLOCK_HEADER_BYTES || !Hash256.sha256(header).equals(blockHash)) {
+            return false;
+        }
+        ByteBuffer fields = ByteBuffer.wrap(header);
+        if (!Hash256.read(fields.position(CanonicalCodec.BLOCK_MERKLE_ROOT_OFFSET)).equals(merkleRoot)) {
+            return false;
+        }
+        // Zero for a PoR block, whose producer can only be checked against the leader schedule.
+        int difficulty = fields.getInt(CanonicalCodec.BLOCK_DIFFICULTY_OFFSET);
+        return blockHash.leadingZeroBits() >= difficulty;
+    }
+
+    private boolean verifyPath() {
+        byte[] current = leafHash.toBytes();
+        int position = index;
+        for (Hash256 sibling : siblings) {
+            byte[] other = sibling.toBytes();
+            current = (position % 2 == 0) ? MerkleTree.nodeHash(current, other) : MerkleTree.nodeHash(other, current);
+            position /= 2;
+        }
+        return Hash256.of(current).equals(merkleRoot);
+    }
+
+    public Hash256 getTxId() {
+        return txId;
+    }
+
+    public Hash256 getBlockHash() {
+        return blockHash;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Hash256 getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    public Hash256 getLeafHash() {
+        return leafHash;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public List<Hash256> getSiblings() {
+        return siblings;
+    }
+
+    public byte[] getHeader() {
+        return header.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "MerkleProof{" +
+                "txId='" + txId + '\'' +
+                ", blockHash='" + blockHash + '\'' +
+                ", height=" + height +
+                ", merkleRoot='" + merkleRoot + '\'' +
+                ", index=" + index +
+                ", siblings=" + siblings +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+package ledger;
+
+import util.HashUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary Merkle tree over transaction hashes. Leaves and inner nodes are hashed with
+ * distinct prefixes, and the last node of an odd level is paired with itself. That makes a list
+ * and the same list with its tail repeated hash to the same root, so BlockValidator rejects
+ * blocks that contain a transaction twice.
+ */
+public final class MerkleTree {
+
+    private static final byte[] LEAF_PREFIX = {0x00};
+    private static final byte[] NODE_PREFIX = {0x01};
+
+    private MerkleTree() {
+    }
+
+    public static byte[] leafHash(Transaction tx) {
+        return HashUtil.sha256Bytes(LEAF_PREFIX, CanonicalCodec.encodeTransaction(tx));
+    }
+
+    public static byte[] nodeHash(byte[] left, byte[] right) {
+        return HashUtil.sha256Bytes(NODE_PREFIX, left, right);
+    }
+
+    public static byte[] root(List<Transaction> transactions) {
+        if (transactions == null || transactions.isEmpty()) {
+            return new byte[CanonicalCodec.HASH_BYTES];
+        }
+
+        List<byte[]> level = leaves(transactions);
+        while (level.size() > 1) {
+            level = nextLevel(level);
+        }
+        return level.get(0);
+    }
+
+    public static List<Hash256> proof(List<Transaction> transactions, int index) {
+        List<Hash256> siblings = new ArrayList<>();
+        List<byte[]> level = leaves(transactions);
+        int position = index;
+
+        while (level.size() > 1) {
+            int siblingIndex = (position % 2 == 0) ? position + 1 : position - 1;
+            if (siblingIndex >= level.size()) {
+                siblingIndex = position;
+            }
+            siblings.add(Hash256.of(level.get(siblingIndex)));
+            level = nextLevel(level);
+            position /= 2;
+        }
+        return siblings;
+    }
+
+    private static List<byte[]> leaves(List<Transaction> transactions) {
+        List<byte[]> leaves = new ArrayList<>(transactions.size());
+        for (Transaction tx : transactions) {
+            leaves.add(leafHash(tx));
+        }
+        return leaves;
+    }
+
+    private static List<byte[]> nextLevel(List<byte[]> level) {
+        List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+        for (int i = 0; i < level.size(); i += 2) {
+            byte[] left = level.get(i);
+            byte[] right = (i + 1 < level.size()) ? level.get(i + 1) : left;
+            next.add(nodeHash(left, right));
+        }
+        return next;
+    }
+}
@@ -0,0 +1,202 @@
+package ledger;
+
+import util.CryptoUtil;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fans block and transaction signature checks out over a shared ForkJoin pool.
+ * The first failing check stops the remaining ones and is reported back to the caller.
+ */
+public final class SignatureVerifier {
+
+    private static final int PARALLELISM = Integer.getInteger("verify.parallelism", Runtime.getRuntime().availableProcessors());
+    private static final int SPLIT_THRESHOLD = 2;
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("sig-verify-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    private SignatureVerifier() {
+    }
+
+    /**
+     * Verifies the block signatures and every transaction signature of the given blocks.
+     * Unsigned genesis blocks are skipped. Returns null when everything is valid.
+     * Key ids resolve through the KeyRegistry, or to a key written out in full within the
+     * same blocks, which is not registered until they are on the chain.
+     */
+    public static Failure verifyBlocks(List<Block> blocks) {
+        Set<String> fullKeys = new HashSet<>();
+        for (Block block : blocks) {
+            fullKeys.add(block.getPublicKey());
+            for (Transaction tx : block.getTransactions()) {
+                fullKeys.add(tx.getPublicKey());
+            }
+        }
+        fullKeys.remove(null);
+        Map<String, String> runKeys = new HashMap<>();
+        for (String publicKey : fullKeys) {
+            try {
+                runKeys.put(KeyRegistry.keyId(publicKey), publicKey);
+            } catch (IllegalArgumentException e) {
+                // Not base64; the check for its signature reports it.
+            }
+        }
+        List<Check> checks = new ArrayList<>();
+        for (Block block : blocks) {
+            if (!Hash256.ZERO.equals(block.getPreviousHash())) {
+                checks.add(new Check(block, null, -1, keyFor(block.getPublicKey(), block.getKeyId(), runKeys)));
+            }
+            List<Transaction> transactions = block.getTransactions();
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction tx = transactions.get(i);
+                checks.add(new Check(block, tx, i, keyFor(tx.getPublicKey(), tx.getKeyId(), runKeys)));
+            }
+        }
+        return run(checks);
+    }
+
+    public static Failure verifyTransactions(List<Transaction> transactions) {
+        List<Check> checks = new ArrayList<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction tx = transactions.get(i);
+            checks.add(new Check(null, tx, i, tx.resolvePublicKey()));
+        }
+        return run(checks);
+    }
+
+    private static String keyFor(String publicKey, String keyId, Map<String, String> runKeys) {
+        if (publicKey != null || keyId == null) {
+            return publicKey;
+        }
+        String registered = KeyRegistry.resolve(keyId);
+        return registered != null ? registered : runKeys.get(keyId);
+    }
+
+    private static Failure run(List<Check> checks) {
+        AtomicReference<Failure> failure = new AtomicReference<>();
+        VerifyTask task = new VerifyTask(checks, 0, checks.size(), failure);
+        if (checks.size() < SPLIT_THRESHOLD) {
+            task.compute();
+        } else {
+            POOL.invoke(task);
+        }
+        return failure.get();
+    }
+
+    private static class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Check> checks;
+        private final int from;
+        private final int to;
+        private final AtomicReference<Failure> failure;
+
+        VerifyTask(List<Check> checks, int from, int to, AtomicReference<Failure> failure) {
+            this.checks = checks;
+            this.from = from;
+            this.to = to;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new VerifyTask(checks, from, mid, failure), new VerifyTask(checks, mid, to, failure));
+                return;
+            }
+            for (int i = from; i < to && failure.get() == null; i++) {
+                Check check = checks.get(i);
+                String reason = check.verify();
+                if (reason != null) {
+                    failure.compareAndSet(null, new Failure(check.block, check.transaction, check.index, reason));
+                }
+            }
+        }
+    }
+
+    private static class Check {
+        private final Block block;
+        private final Transaction transaction;
+        private final int index;
+        private final String publicKey;
+
+        Check(Block block, Transaction transaction, int index, String publicKey) {
+            this.block = block;
+            this.transaction = transaction;
+            this.index = index;
+            this.publicKey = publicKey;
+        }
+
+        // Returns null when the signature is valid, otherwise the reason it is not.
+        String verify() {
+            try {
+                if (publicKey == null) {
+                    String keyId = transaction == null ? block.getKeyId() : transaction.getKeyId();
+                    return keyId == null ? "no public key" : "unknown key id " + keyId;
+                }
+                PublicKey pubKey = CryptoUtil.base64ToPublicKey(publicKey);
+                if (transaction == null) {
+                    return CryptoUtil.verifySignature(block.getCanonicalBytes(), block.getSignature(), pubKey)
+                            ? null : "block signature invalid";
+                }
+                return transaction.verifySignature(pubKey) ? null : "transaction signature invalid";
+            } catch (Exception e) {
+                return "error verifying signature: " + e.getMessage();
+            }
+        }
+    }
+
+    public static class Failure {
+        private final Block block;
+        private final Transaction transaction;
+        private final int transactionIndex;
+        private final String reason;
+
+        Failure(Block block, Transaction transaction, int transactionIndex, String reason) {
+            this.block = block;
+            this.transaction = transaction;
+            this.transactionIndex = transactionIndex;
+            this.reason = reason;
+        }
+
+        public Block getBlock() {
+            return block;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        public int getTransactionIndex() {
+            return transactionIndex;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            String where = block == null ? "" : " in block " + block.getHash();
+            if (transaction == null) {
+                return reason + where;
+            }
+            return reason + " for tx #" + transactionIndex + " from " + transaction.getSenderId() + where;
+        }
+    }
+}
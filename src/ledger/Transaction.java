@@ -1,8 +1,9 @@
 package ledger;
 
+import util.CryptoUtil;
+
+import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
-import java.security.Signature;
-import java.util.Base64;
 
 public class Transaction {
     private String senderId;
@@ -11,6 +12,9 @@ public class Transaction {
     private String signature;
     private double trustScore;
     private String publicKey;
+    private String keyId;
+    private transient Hash256 id;
+    private transient byte[] signingBytes;
 
     public Transaction(String senderId, String payload, long timestamp, String signature) {
         this.senderId = senderId;
@@ -19,6 +23,26 @@ public class Transaction {
         this.signature = signature;
     }
 
+    public Hash256 getId() {
+        if (id == null) {
+            id = Hash256.sha256((senderId + payload + timestamp).getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    public byte[] getSigningBytes() {
+        byte[] bytes = signingBytes;
+        if (bytes == null) {
+            bytes = signingBytes(senderId, payload, timestamp);
+            signingBytes = bytes;
+        }
+        return bytes;
+    }
+
+    public static byte[] signingBytes(String senderId, String payload, long timestamp) {
+        return CanonicalCodec.encodeTransactionBody(senderId, payload, timestamp);
+    }
+
     public String getSenderId() {
         return senderId;
     }
@@ -51,14 +75,35 @@ public class Transaction {
         this.publicKey = publicKey;
     }
 
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public void setKeyId(String keyId) {
+        this.keyId = keyId;
+    }
+
+    /**
+     * The sender's key, looked up in the KeyRegistry when the transaction only carries its id.
+     */
+    public String resolvePublicKey() {
+        return publicKey != null ? publicKey : KeyRegistry.resolve(keyId);
+    }
+
+    /**
+     * A copy referring to the sender's key in the given form. The signature does not cover the key.
+     */
+    public Transaction withKey(String publicKey, String keyId) {
+        Transaction copy = new Transaction(senderId, payload, timestamp, signature);
+        copy.trustScore = trustScore;
+        copy.publicKey = publicKey;
+        copy.keyId = keyId;
+        return copy;
+    }
+
     public boolean verifySignature(PublicKey publicKey) {
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
-            sig.initVerify(publicKey);
-            String message = senderId + payload + timestamp;
-            sig.update(message.getBytes());
-            byte[] signatureBytes = Base64.getDecoder().decode(signature);
-            return sig.verify(signatureBytes);
+            return CryptoUtil.verifySignature(getSigningBytes(), signature, publicKey);
         } catch (Exception e) {
             e.printStackTrace();
             return false;
@@ -74,6 +119,7 @@ public class Transaction {
                 ", signature='" + signature + '\'' +
                 ", trustScore=" + trustScore +
                 ", publicKey='" + publicKey + '\'' +
+                ", keyId='" + keyId + '\'' +
                 '}';
     }
 }
@@ -7,14 +7,19 @@ import com.google.gson.Gson;
 import consensus.ConsensusEngine;
 import consensus.PoWConsensus;
 import ledger.Block;
+import ledger.BlockValidator;
 import ledger.Blockchain;
+import ledger.BlockchainStorage;
 import ledger.Transaction;
 import network.NetworkEngine;
 import network.kad.KademliaID;
 import network.kad.Node;
 import network.netty.Message;
 import network.netty.MessageHandler;
+import util.CompressionUtil;
+import util.CryptoUtil;
 
+import java.nio.file.Paths;
 import java.util.*;
 
 import static util.AttackSimulator.simulateEclipseAttack;
@@ -30,11 +35,15 @@ public class Main {
         ConsensusEngine consensusEngine = new PoWConsensus();
         System.out.println("Started with PoW consensus. Reputation will determine automatic switching.");
 
+        long startupBegin = System.nanoTime();
+        BlockchainStorage.setChainDir(Paths.get(System.getProperty("ledger.dir", "data/node-" + port + "/chain")));
         Blockchain blockchain = new Blockchain();
         NetworkEngine network = new NetworkEngine(port, blockchain, consensusEngine);
         AuctionManager auctionManager = network.getAuctionManager();
         String id = network.getLocalNodeId();
         network.startServer();
+        System.out.printf("[STARTUP] Node ready in %d ms (%d blocks)%n",
+                (System.nanoTime() - startupBegin) / 1_000_000, blockchain.getChain().size());
 
         System.out.print("Do you want to connect to another node? (y/n) ");
         String connect = scanner.nextLine().trim().toLowerCase();
@@ -80,6 +89,7 @@ public class Main {
                     break;
                 case "0":
                     System.out.println("Exiting...");
+                    BlockchainStorage.flush();
                     return;
                 default:
                     System.out.println("Invalid option.");
@@ -168,6 +178,7 @@ public class Main {
             System.out.println("3. Test PoW with failure");
             System.out.println("4. Test PoR");
             System.out.println("5. Test PoR with failure");
+            System.out.println("6. Storage and transport statistics");
             System.out.println("0. Back to main menu");
             System.out.print("Select an option: ");
             String option = scanner.nextLine().trim();
@@ -204,19 +215,20 @@ public class Main {
                     try {
                         String payload = "Test Transaction";
                         long ts = System.currentTimeMillis();
-                        String message = localNodeId + payload + ts;
-                        String signature = util.CryptoUtil.signData(message.getBytes(), network.getKeyPair().getPrivate());
+                        byte[] message = Transaction.signingBytes(localNodeId, payload, ts);
+                        String signature = util.CryptoUtil.signData(message, network.getKeyPair().getPrivate());
 
                         Transaction tx = new Transaction(localNodeId, payload, ts, signature);
                         tx.setPublicKey(network.getPublicKeyBase64());
                         tx.setTrustScore(1.0);
                         testTx.add(tx);
 
-                        Block testBlock = network.getConsensusEngine().generateNextBlock(testTx, blockchain, network.getKeyPair());
-                        boolean valid = network.getConsensusEngine().validateBlock(testBlock, blockchain);
+                        Block testBlock = network.getConsensusEngine().generateNextBlock(testTx, blockchain, network.getKeyPair()).join();
+                        BlockValidator.Result validation = blockchain.validateBlock(testBlock, network.getConsensusEngine());
+                        boolean valid = validation.isValid();
                         System.out.println(valid ? "Block is valid." : "Validation failed.");
                         if (valid) {
-                            boolean added = blockchain.addBlock(testBlock, network.getConsensusEngine(), network);
+                            boolean added = blockchain.addBlock(testBlock, validation, network.getConsensusEngine(), network);
                             System.out.println(added ? "Block added to blockchain." : "Block rejected.");
                             if (added) {
                                 network.broadcastBlock(testBlock);
@@ -232,8 +244,8 @@ public class Main {
                     try {
                         String payload = "Malformed Transaction";
                         long now = System.currentTimeMillis();
-                        String msg = localNodeId + payload + now;
-                        String badSig = util.CryptoUtil.signData(msg.getBytes(), network.getKeyPair().getPrivate());
+                        byte[] msg = Transaction.signingBytes(localNodeId, payload, now);
+                        String badSig = util.CryptoUtil.signData(msg, network.getKeyPair().getPrivate());
 
                         Transaction badTx = new Transaction(localNodeId, payload, now, badSig);
                         badTx.setPublicKey(network.getPublicKeyBase64());
@@ -241,10 +253,11 @@ public class Main {
                         badTxList.add(badTx);
 
                         Block badBlock = new Block(blockchain.getLatestBlock().getHash(), badTxList);
-                        boolean valid = network.getConsensusEngine().validateBlock(badBlock, blockchain);
+                        BlockValidator.Result validation = blockchain.validateBlock(badBlock, network.getConsensusEngine());
+                        boolean valid = validation.isValid();
                         System.out.println(valid ? "Invalid block passed validation." : "Invalid block rejected as expected.");
 
-                        boolean added = blockchain.addBlock(badBlock, network.getConsensusEngine(), network);
+                        boolean added = blockchain.addBlock(badBlock, validation, network.getConsensusEngine(), network);
                         System.out.println(added ? "Error: invalid block was added." : "Invalid block was rejected as expected.");
                         network.broadcastBlock(badBlock);
                     } catch (Exception e) {
@@ -258,19 +271,20 @@ public class Main {
                     String payload = "Test PoR Transaction";
 
                     try {
-                        String message = localNodeId + payload + now;
-                        String signature = util.CryptoUtil.signData(message.getBytes(), network.getKeyPair().getPrivate());
+                        byte[] message = Transaction.signingBytes(localNodeId, payload, now);
+                        String signature = util.CryptoUtil.signData(message, network.getKeyPair().getPrivate());
 
                         Transaction tx = new Transaction(localNodeId, payload, now, signature);
                         tx.setPublicKey(network.getPublicKeyBase64());
                         tx.setTrustScore(1.0);
                         txList.add(tx);
 
-                        Block blockPoR = network.getConsensusEngine().generateNextBlock(txList, blockchain, network.getKeyPair());
-                        boolean valid = network.getConsensusEngine().validateBlock(blockPoR, blockchain);
+                        Block blockPoR = network.getConsensusEngine().generateNextBlock(txList, blockchain, network.getKeyPair()).join();
+                        BlockValidator.Result validation = blockchain.validateBlock(blockPoR, network.getConsensusEngine());
+                        boolean valid = validation.isValid();
                         System.out.println(valid ? "Block is valid." : "Validation failed.");
 
-                        boolean added = blockchain.addBlock(blockPoR, network.getConsensusEngine(), network);
+                        boolean added = blockchain.addBlock(blockPoR, validation, network.getConsensusEngine(), network);
                         System.out.println(added ? "Block added to blockchain." : "Block rejected.");
                         if (added) {
                             network.broadcastBlock(blockPoR);
@@ -286,19 +300,20 @@ public class Main {
                     String payloadLow = "Low trust PoR";
 
                     try {
-                        String msg = localNodeId + payloadLow + nowLow;
-                        String signature = util.CryptoUtil.signData(msg.getBytes(), network.getKeyPair().getPrivate());
+                        byte[] msg = Transaction.signingBytes(localNodeId, payloadLow, nowLow);
+                        String signature = util.CryptoUtil.signData(msg, network.getKeyPair().getPrivate());
 
                         Transaction tx = new Transaction(localNodeId, payloadLow, nowLow, signature);
                         tx.setPublicKey(network.getPublicKeyBase64());
                         tx.setTrustScore(0.3);
                         txListLow.add(tx);
 
-                        Block invalidBlock = network.getConsensusEngine().generateNextBlock(txListLow, blockchain, network.getKeyPair());
-                        boolean valid = network.getConsensusEngine().validateBlock(invalidBlock, blockchain);
+                        Block invalidBlock = network.getConsensusEngine().generateNextBlock(txListLow, blockchain, network.getKeyPair()).join();
+                        BlockValidator.Result validation = blockchain.validateBlock(invalidBlock, network.getConsensusEngine());
+                        boolean valid = validation.isValid();
                         System.out.println(valid ? "Unexpected validation pass." : "Validation correctly failed.");
 
-                        boolean added = blockchain.addBlock(invalidBlock, network.getConsensusEngine(), network);
+                        boolean added = blockchain.addBlock(invalidBlock, validation, network.getConsensusEngine(), network);
                         System.out.println(added ? "Error: invalid block was added." : "Invalid block was rejected.");
                         network.broadcastBlock(invalidBlock);
                     } catch (Exception e) {
@@ -306,6 +321,13 @@ public class Main {
                     }
                     break;
 
+                case "6":
+                    System.out.println("Block log compression: " + BlockchainStorage.compressionStats());
+                    System.out.println("Wire compression: " + CompressionUtil.wireStats());
+                    System.out.println("Crypto caches: " + CryptoUtil.cacheStats());
+                    System.out.println("Message dispatch: " + network.getDispatcher().stats());
+                    break;
+
                 case "0":
                     return;
 
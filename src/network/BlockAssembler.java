@@ -0,0 +1,204 @@
+package network;
+
+import consensus.ConsensusEngine;
+import consensus.PoRConsensus;
+import ledger.Block;
+import ledger.BlockValidator;
+import ledger.Blockchain;
+import ledger.Mempool;
+import ledger.Transaction;
+import network.netty.FrameCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cuts blocks from the mempool when the pending transactions reach the count or size limit,
+ * or when the oldest one has waited for the deadline, whichever comes first.
+ * One block is assembled at a time; everything runs on the assembler thread. A block that fails
+ * on one of its transactions drops that transaction from the mempool. Any other failure delays
+ * the next attempt, doubling the delay each time up to mempool.maxRetryDelayMs.
+ */
+public class BlockAssembler {
+
+    private static final int MAX_BLOCK_TXS = Integer.getInteger("mempool.maxBlockTxs", 100);
+    // Canonical transaction bytes. A BLOCK message carries them as JSON with base64 keys and signatures,
+    // so a quarter of the frame limit leaves room for that encoding.
+    private static final int MAX_BLOCK_BYTES = Integer.getInteger("mempool.maxBlockBytes", FrameCodec.MAX_FRAME_BYTES / 4);
+    private static final long MAX_BLOCK_DELAY_MS = Long.getLong("mempool.maxBlockDelayMs", 500L);
+    private static final long MAX_RETRY_DELAY_MS = Long.getLong("mempool.maxRetryDelayMs", 30_000L);
+
+    private final NetworkEngine networkEngine;
+    private final Blockchain blockchain;
+    private final Mempool mempool;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "block-assembler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private boolean assembling = false;
+    private ScheduledFuture<?> deadline;
+    private int failedAttempts = 0;
+    private long retryAt = 0;
+
+    public BlockAssembler(NetworkEngine networkEngine, Blockchain blockchain, Mempool mempool) {
+        this.networkEngine = networkEngine;
+        this.blockchain = blockchain;
+        this.mempool = mempool;
+    }
+
+    public boolean submit(Transaction tx) {
+        if (blockchain.containsTransaction(tx) || !mempool.add(tx)) {
+            return false;
+        }
+        System.out.printf("[MEMPOOL] Transaction from %s queued (%d pending).%n", tx.getSenderId(), mempool.size());
+        executor.execute(this::scheduleNext);
+        return true;
+    }
+
+    private void scheduleNext() {
+        if (assembling || mempool.isEmpty()) {
+            return;
+        }
+        long backoff = retryAt - System.nanoTime();
+        if (backoff > 0) {
+            if (deadline == null) {
+                deadline = executor.schedule(this::assemble, backoff, TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
+        if (mempool.size() >= MAX_BLOCK_TXS || mempool.byteSize() >= MAX_BLOCK_BYTES) {
+            assemble();
+        } else if (deadline == null) {
+            deadline = executor.schedule(this::assemble, MAX_BLOCK_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void assemble() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        if (assembling) {
+            return;
+        }
+
+        List<Transaction> batch = new ArrayList<>();
+        for (Transaction tx : mempool.nextBatch(MAX_BLOCK_TXS, MAX_BLOCK_BYTES)) {
+            if (blockchain.containsTransaction(tx)) {
+                mempool.remove(tx.getId());
+            } else {
+                batch.add(tx);
+            }
+        }
+        if (batch.isEmpty()) {
+            scheduleNext();
+            return;
+        }
+
+        assembling = true;
+        ConsensusEngine consensusEngine = networkEngine.getConsensusEngine();
+        System.out.printf("[MEMPOOL] Assembling block with %d transaction(s) (%s).%n", batch.size(), consensusEngine.getName());
+        try {
+            consensusEngine.generateNextBlock(batch, blockchain, networkEngine.getKeyPair())
+                    .whenComplete((block, error) -> executor.execute(() -> onGenerated(batch, block, error)));
+        } catch (Exception e) {
+            System.err.println("[MEMPOOL] Error generating block: " + e.getMessage());
+            assembling = false;
+            backOff();
+        }
+    }
+
+    private void onGenerated(List<Transaction> batch, Block block, Throwable error) {
+        assembling = false;
+        try {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof CancellationException) {
+                    System.out.println("[BLOCK] Block production stopped: " + cause.getMessage() + ". Reassembling on the current tip...");
+                } else {
+                    System.err.println("[MEMPOOL] Error mining block: " + cause.getMessage());
+                    backOff();
+                }
+                return;
+            }
+            admit(batch, block);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private void admit(List<Transaction> batch, Block block) {
+        ConsensusEngine consensusEngine = networkEngine.getConsensusEngine();
+        try {
+            BlockValidator.Result result = blockchain.validateBlock(block, consensusEngine);
+            if (result.getFailedStage() == BlockValidator.Stage.CONSENSUS) {
+                // Before PoR has a leader schedule it judges a block by its first transaction, so that one
+                // leaves the batch. The block itself was sealed here, and the penalty is this node's.
+                Transaction first = batch.get(0);
+                mempool.remove(first.getId());
+                System.err.println("[BLOCK] Block assembled from mempool was rejected by consensus.");
+
+                String signerId = networkEngine.getLocalNodeId();
+                double penalty = (consensusEngine instanceof PoRConsensus) ? 0.10 : 0.03;
+                networkEngine.getReputationEngine().registerFailure(signerId, penalty);
+                System.out.printf("[REPUTATION] Penalty %.2f applied to %s (%s rejected the block).\n",
+                        penalty, signerId, consensusEngine.getName());
+                return;
+            }
+            if (!result.isValid() && result.getTransactionIndex() >= 0) {
+                // Transactions are sealed in batch order, so the index points into the batch as well.
+                Transaction offending = batch.get(result.getTransactionIndex());
+                mempool.remove(offending.getId());
+                System.err.printf("[BLOCK] Block assembled from mempool was rejected (%s); dropped the transaction from %s.%n",
+                        result, offending.getSenderId());
+                return;
+            }
+
+            if (!result.isValid() || !blockchain.addBlock(block, result, consensusEngine, networkEngine)) {
+                System.err.println("[BLOCK] Block assembled from mempool could not be added" + (result.isValid() ? "." : ": " + result));
+                backOff();
+                return;
+            }
+            failedAttempts = 0;
+            retryAt = 0;
+            mempool.removeAll(batch);
+            System.out.printf("[BLOCK] Block created with %d transaction(s) from the mempool (%d still pending).%n",
+                    batch.size(), mempool.size());
+            // Announce the block once it is in the log, so a crash cannot lose a block peers already build on.
+            blockchain.whenWritten().whenCompleteAsync((written, error) -> {
+                if (error != null) {
+                    System.err.println("[BLOCK] Block was added but could not be written: " + error.getMessage());
+                }
+                networkEngine.broadcastBlock(block);
+            }, executor);
+
+            for (Transaction tx : batch) {
+                String txId = tx.getSenderId() + tx.getPayload() + tx.getTimestamp();
+                networkEngine.getReputationEngine().registerSuccess(tx.getSenderId());
+                networkEngine.getReputationEngine().markTransactionProcessed(txId);
+                System.out.printf("[REPUTATION] Reputation increased for %s (%s block created).\n",
+                        tx.getSenderId(), consensusEngine.getName());
+            }
+        } catch (Exception e) {
+            System.err.println("[MEMPOOL] Error admitting assembled block: " + e.getMessage());
+            e.printStackTrace();
+            backOff();
+        }
+    }
+
+    // The same batch would fail the same way at once, so the next attempt waits for the tip or clock to move.
+    private void backOff() {
+        failedAttempts++;
+        long delayMs = Math.min(MAX_RETRY_DELAY_MS, MAX_BLOCK_DELAY_MS << Math.min(failedAttempts - 1, 16));
+        retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        System.out.printf("[MEMPOOL] Retrying block assembly in %d ms.%n", delayMs);
+    }
+}
@@ -0,0 +1,312 @@
+package network;
+
+import com.google.gson.Gson;
+import ledger.Block;
+import ledger.Blockchain;
+import ledger.Hash256;
+import network.netty.FrameCodec;
+import network.netty.Message;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range-based chain synchronization.
+ * Peers exchange CHAIN_TIP, the node behind sends GET_BLOCKS with a block locator, and the
+ * peer answers with BLOCKS batches starting after the highest locator hash it knows.
+ * The next batch is requested before the current one is applied, and a stalled sync is
+ * resumed from the local tip.
+ */
+public class ChainSync {
+
+    private static final int MAX_BATCH_BLOCKS = Integer.getInteger("sync.batchBlocks", 500);
+    private static final int MAX_BATCH_BYTES = Integer.getInteger("sync.batchBytes", 1024 * 1024);
+    // Peers without binary framing read 8 KB lines; stays below that once escaped inside the Message JSON.
+    private static final int LEGACY_BATCH_BYTES = 6 * 1024;
+    private static final int MAX_PENDING_BLOCKS = Integer.getInteger("sync.maxPendingBlocks", 10_000);
+    private static final long STALL_TIMEOUT_MS = Long.getLong("sync.stallTimeoutMs", 10_000L);
+    private static final int MAX_STALLS = 3;
+
+    private final NetworkEngine networkEngine;
+    private final Blockchain blockchain;
+    private final Gson gson = new Gson();
+    private final Map<String, SyncSession> sessions = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chain-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChainSync(NetworkEngine networkEngine, Blockchain blockchain) {
+        this.networkEngine = networkEngine;
+        this.blockchain = blockchain;
+        scheduler.scheduleAtFixedRate(this::resumeStalledSessions, STALL_TIMEOUT_MS, STALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void sendChainTip(String ip, int port) {
+        List<Block> chain = blockchain.getChain();
+        ChainTipPayload tip = new ChainTipPayload(chain.size() - 1, chain.get(chain.size() - 1).getHash(), blockchain.getChainWork());
+        networkEngine.sendMessage(ip, port, new Message("CHAIN_TIP", networkEngine.getLocalNodeId(), gson.toJson(tip)));
+    }
+
+    public void handleChainTip(Message message, String ip, int port) {
+        ChainTipPayload remote = gson.fromJson(message.getPayload(), ChainTipPayload.class);
+        List<Block> chain = blockchain.getChain();
+        int localHeight = chain.size() - 1;
+        Hash256 localTip = chain.get(localHeight).getHash();
+        System.out.printf("[SYNC] Peer %s:%d tip at height %d (local %d)%n", ip, port, remote.height, localHeight);
+
+        if (remote.tipHash.equals(localTip)) {
+            return;
+        }
+        // Older peers do not report work; their blocks are still judged by work once they arrive.
+        boolean remoteBetter = remote.work == null
+                ? remote.height > localHeight
+                : isBetter(remote.work, remote.tipHash, blockchain.getChainWork(), localTip);
+        if (remoteBetter) {
+            requestBlocks(ip, port);
+        } else {
+            // Let the peer pull from us; the comparison is symmetric so this does not loop.
+            sendChainTip(ip, port);
+        }
+    }
+
+    public synchronized void requestBlocks(String ip, int port) {
+        if (sessions.containsKey(key(ip, port))) {
+            return;
+        }
+        SyncSession session = new SyncSession(ip, port);
+        sessions.put(session.key(), session);
+        session.touch();
+        sendGetBlocks(session, blockchain.getBlockLocator());
+    }
+
+    public void handleGetBlocks(Message message, String ip, int port) {
+        GetBlocksPayload request = gson.fromJson(message.getPayload(), GetBlocksPayload.class);
+        List<Block> chain = blockchain.getChain();
+        int start = 0;
+        for (Hash256 hash : request.locator) {
+            int height = blockchain.getHeight(hash);
+            if (height >= 0 && height < chain.size() && chain.get(height).getHash().equals(hash)) {
+                start = height + 1;
+                break;
+            }
+        }
+
+        int tipHeight = chain.size() - 1;
+        int limit = Math.min(request.maxBlocks > 0 ? request.maxBlocks : MAX_BATCH_BLOCKS, MAX_BATCH_BLOCKS);
+        int maxBytes = FrameCodec.isBinaryPeer(ip, port) ? MAX_BATCH_BYTES : LEGACY_BATCH_BYTES;
+        List<Block> blocks = new ArrayList<>();
+        int bytes = 0;
+        for (int height = start; height <= tipHeight && blocks.size() < limit; height++) {
+            Block block = chain.get(height);
+            int size = gson.toJson(block).getBytes(StandardCharsets.UTF_8).length;
+            if (!blocks.isEmpty() && bytes + size > maxBytes) {
+                break;
+            }
+            blocks.add(block);
+            bytes += size;
+        }
+        BlocksPayload response = new BlocksPayload(start, tipHeight, blocks);
+
+        networkEngine.sendMessage(ip, port, new Message("BLOCKS", networkEngine.getLocalNodeId(), gson.toJson(response)));
+        System.out.printf("[SYNC] Sent %d block(s) from height %d to %s:%d%n", response.blocks.size(), response.startHeight, ip, port);
+    }
+
+    public synchronized void handleBlocks(Message message, String ip, int port) {
+        BlocksPayload batch = gson.fromJson(message.getPayload(), BlocksPayload.class);
+        SyncSession session = sessions.get(key(ip, port));
+        if (session == null) {
+            System.out.println("[SYNC] Ignoring unsolicited BLOCKS from " + key(ip, port));
+            return;
+        }
+        session.touch();
+
+        if (batch.blocks == null || batch.blocks.isEmpty()) {
+            System.out.println("[SYNC] Peer " + ip + ":" + port + " has nothing more to send.");
+            sessions.remove(session.key());
+            return;
+        }
+
+        List<Block> blocks = batch.blocks;
+        Block last = blocks.get(blocks.size() - 1);
+        boolean more = batch.startHeight + blocks.size() <= batch.tipHeight;
+
+        // Pipelining: ask for the next range before spending time validating this one.
+        if (more) {
+            List<Hash256> locator = new ArrayList<>();
+            locator.add(last.getHash());
+            locator.addAll(blockchain.getBlockLocator());
+            sendGetBlocks(session, locator);
+        }
+
+        if (!session.pending.isEmpty()
+                && !session.pending.get(session.pending.size() - 1).getHash().equals(blocks.get(0).getPreviousHash())) {
+            session.pending.clear();
+        }
+        for (Block block : blocks) {
+            if (session.pending.isEmpty() && blockchain.containsBlock(block.getHash())) {
+                continue;
+            }
+            session.pending.add(block);
+        }
+        applyPending(session);
+
+        if (!more) {
+            sessions.remove(session.key());
+            System.out.printf("[SYNC] Sync with %s:%d finished at height %d%n", ip, port, blockchain.getTipHeight());
+        }
+    }
+
+    /**
+     * Applies buffered blocks once they attach to the local chain: immediately when they
+     * extend the tip, or as a reorg once the fork has more work than the local suffix it replaces.
+     */
+    private void applyPending(SyncSession session) {
+        if (session.pending.isEmpty()) {
+            return;
+        }
+
+        Block first = session.pending.get(0);
+        if (Hash256.ZERO.equals(first.getPreviousHash())) {
+            System.err.println("[SYNC] Peer " + session.key() + " is on a different genesis block. Sync aborted.");
+            sessions.remove(session.key());
+            session.pending.clear();
+            return;
+        }
+        int forkHeight = blockchain.getHeight(first.getPreviousHash()) + 1;
+        if (forkHeight == 0) {
+            System.err.println("[SYNC] Batch from " + session.key() + " does not connect to the local chain. Restarting from locator.");
+            session.pending.clear();
+            sendGetBlocks(session, blockchain.getBlockLocator());
+            return;
+        }
+
+        List<Block> chain = blockchain.getChain();
+        int localSize = chain.size();
+        Block candidateTip = session.pending.get(session.pending.size() - 1);
+        boolean extendsTip = forkHeight == localSize;
+        BigInteger candidateWork = Blockchain.workOf(session.pending);
+        BigInteger replacedWork = Blockchain.workOf(chain.subList(forkHeight, localSize));
+        if (!extendsTip && !isBetter(candidateWork, candidateTip.getHash(), replacedWork, chain.get(localSize - 1).getHash())) {
+            if (session.pending.size() > MAX_PENDING_BLOCKS) {
+                System.err.println("[SYNC] Fork from " + session.key() + " exceeds the pending limit. Dropping it.");
+                session.pending.clear();
+            }
+            return;
+        }
+
+        if (blockchain.importBlocks(forkHeight, new ArrayList<>(session.pending), networkEngine.getConsensusEngine())) {
+            for (Block block : session.pending) {
+                networkEngine.getMempool().removeAll(block.getTransactions());
+            }
+            if (!extendsTip) {
+                System.out.printf("[SYNC] Reorganized from height %d onto chain from %s%n", forkHeight, session.key());
+            }
+        } else {
+            System.err.println("[SYNC] Invalid blocks from " + session.key() + ". Sync aborted.");
+            sessions.remove(session.key());
+        }
+        session.pending.clear();
+    }
+
+    private synchronized void resumeStalledSessions() {
+        long now = System.currentTimeMillis();
+        for (SyncSession session : new ArrayList<>(sessions.values())) {
+            if (now - session.lastActivity < STALL_TIMEOUT_MS) {
+                continue;
+            }
+            if (++session.stalls > MAX_STALLS) {
+                System.err.println("[SYNC] Giving up on sync with " + session.key() + " after " + MAX_STALLS + " attempts.");
+                sessions.remove(session.key());
+            } else {
+                System.out.println("[SYNC] Sync with " + session.key() + " stalled. Resuming from local tip.");
+                session.touch();
+                session.pending.clear();
+                sendGetBlocks(session, blockchain.getBlockLocator());
+            }
+        }
+    }
+
+    private void sendGetBlocks(SyncSession session, List<Hash256> locator) {
+        GetBlocksPayload payload = new GetBlocksPayload(locator, MAX_BATCH_BLOCKS);
+        networkEngine.sendMessage(session.ip, session.port,
+                new Message("GET_BLOCKS", networkEngine.getLocalNodeId(), gson.toJson(payload)));
+    }
+
+    // Most cumulative work wins; only equal work is broken by the smaller tip hash, so both sides agree.
+    private static boolean isBetter(BigInteger work, Hash256 tipHash, BigInteger otherWork, Hash256 otherTipHash) {
+        int byWork = work.compareTo(otherWork);
+        if (byWork != 0) {
+            return byWork > 0;
+        }
+        return tipHash.compareTo(otherTipHash) < 0;
+    }
+
+    private static String key(String ip, int port) {
+        return ip + ":" + port;
+    }
+
+    private static class SyncSession {
+        private final String ip;
+        private final int port;
+        private final List<Block> pending = new ArrayList<>();
+        private long lastActivity;
+        private int stalls;
+
+        SyncSession(String ip, int port) {
+            this.ip = ip;
+            this.port = port;
+        }
+
+        void touch() {
+            lastActivity = System.currentTimeMillis();
+            stalls = 0;
+        }
+
+        String key() {
+            return ChainSync.key(ip, port);
+        }
+    }
+
+    public static class ChainTipPayload {
+        public int height;
+        public Hash256 tipHash;
+        public BigInteger work;
+
+        public ChainTipPayload(int height, Hash256 tipHash, BigInteger work) {
+            this.height = height;
+            this.tipHash = tipHash;
+            this.work = work;
+        }
+    }
+
+    public static class GetBlocksPayload {
+        public List<Hash256> locator;
+        public int maxBlocks;
+
+        public GetBlocksPayload(List<Hash256> locator, int maxBlocks) {
+            this.locator = locator;
+            this.maxBlocks = maxBlocks;
+        }
+    }
+
+    public static class BlocksPayload {
+        public int startHeight;
+        public int tipHeight;
+        public List<Block> blocks;
+
+        public BlocksPayload(int startHeight, int tipHeight, List<Block> blocks) {
+            this.startHeight = startHeight;
+            this.tipHeight = tipHeight;
+            this.blocks = blocks;
+        }
+    }
+}
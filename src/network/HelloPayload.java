@@ -1,13 +1,18 @@
 package network;
 
+import network.netty.FrameCodec;
+
 public class HelloPayload {
     public String nodeId;
     public String ip;
     public int port;
+    // Highest binary frame version the sender reads; absent (0) from nodes that only speak JSON lines.
+    public int wireVersion;
 
     public HelloPayload(String nodeId, String ip, int port) {
         this.nodeId = nodeId;
         this.ip = ip;
         this.port = port;
+        this.wireVersion = FrameCodec.VERSION;
     }
 }
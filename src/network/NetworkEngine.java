@@ -4,18 +4,22 @@ import auction.ReputationEngine;
 import com.google.gson.Gson;
 import ledger.Block;
 import ledger.Blockchain;
+import ledger.Mempool;
 import ledger.Transaction;
 import network.kad.KadStore;
 import network.kad.KademliaID;
 import network.kad.Node;
 import network.kad.RoutingTable;
 import network.netty.Message;
+import network.netty.MessageDispatcher;
 import network.netty.MessageHandler;
 import network.netty.P2PClient;
 import network.netty.P2PServer;
 import auction.AuctionManager;
 import consensus.ConsensusEngine;
 import util.CryptoUtil;
+import util.KeyStoreUtil;
+import util.SignatureScheme;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -23,7 +27,6 @@ import java.security.KeyPair;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
-import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 
 public class NetworkEngine {
@@ -40,6 +43,9 @@ public class NetworkEngine {
     private final int localPort;
     private final KadStore kadStore = new KadStore();
     private final PeerManager peerManager;
+    private final ChainSync chainSync;
+    private final Mempool mempool = new Mempool(Integer.getInteger("mempool.maxTransactions", 10_000));
+    private final BlockAssembler blockAssembler;
     private final ReputationEngine reputationEngine = new ReputationEngine();
     private KeyPair keyPair;
     private String publicKeyBase64;
@@ -58,8 +64,11 @@ public class NetworkEngine {
         }
         this.localHost = ipTemp;
 
+        X509Certificate certificate;
         try {
-            this.keyPair = CryptoUtil.generateKeyPair();
+            long start = System.nanoTime();
+            String identity = "node-" + port;
+            this.keyPair = KeyStoreUtil.loadOrCreateKeyPair(identity);
             this.publicKeyBase64 = CryptoUtil.publicKeyToBase64(keyPair.getPublic());
             this.localId = KademliaID.fromPublicKey(keyPair.getPublic());
 
@@ -67,12 +76,13 @@ public class NetworkEngine {
                     ? publicKeyBase64.substring(0, 35) + "..."
                     : publicKeyBase64;
 
-            System.out.println("[NETWORK] RSA key pair generated.");
+            System.out.println("[NETWORK] " + SignatureScheme.forKey(keyPair.getPublic()).getKeyAlgorithm() + " key pair ready (" + identity + ").");
             System.out.println("[NETWORK] Public key (prefix): " + shortKey);
 
-            X509Certificate cert = CryptoUtil.generateSelfSignedCertificate(this.keyPair);
+            certificate = KeyStoreUtil.loadOrCreateCertificate(identity, this.keyPair);
             SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-            System.out.println("[NETWORK] Certificate valid: " + dateFormat.format(cert.getNotBefore()) + " → " + dateFormat.format(cert.getNotAfter()));
+            System.out.println("[NETWORK] Certificate valid: " + dateFormat.format(certificate.getNotBefore()) + " → " + dateFormat.format(certificate.getNotAfter()));
+            System.out.printf("[NETWORK] Identity loaded in %d ms%n", (System.nanoTime() - start) / 1_000_000);
         } catch (Exception e) {
             System.err.println("[NETWORK] Error generating key or certificate: " + e.getMessage());
             throw new RuntimeException(e);
@@ -80,6 +90,8 @@ public class NetworkEngine {
 
         this.routingTable = new RoutingTable(localId, 160, 20);
         this.peerManager = new PeerManager(localId);
+        this.chainSync = new ChainSync(this, this.blockchain);
+        this.blockAssembler = new BlockAssembler(this, this.blockchain, mempool);
         this.auctionManager = new AuctionManager(this.blockchain, this);
         this.auctionManager.setConsensusType(consensusEngine.getName());
 
@@ -88,7 +100,7 @@ public class NetworkEngine {
         this.messageHandler.setBlockchain(blockchain);
         this.messageHandler.setNetworkEngine(this);
 
-        this.server = new P2PServer(port, messageHandler, keyPair);
+        this.server = new P2PServer(port, messageHandler, keyPair, certificate);
         this.client = new P2PClient(localHost, localPort);
 
         System.out.println("[NETWORK] Node started | ID: " + this.localId + " | Port: " + this.localPort);
@@ -110,10 +122,8 @@ public class NetworkEngine {
         sendMessage(ip, port, hello);
         System.out.printf("[NETWORK] Sent HELLO to %s | IP: %s | Port: %d%n", shortId, ip, port);
 
-        String blockchainJson = gson.toJson(this.blockchain.getChain());
-        Message blockchainSync = new Message("BLOCKCHAIN_SYNC", localId.toString(), blockchainJson);
-        sendMessage(ip, port, blockchainSync);
-        System.out.printf("[NETWORK] Sent BLOCKCHAIN_SYNC to %s | Port: %d (%d blocks)%n", ip, port, this.blockchain.getChain().size());
+        chainSync.sendChainTip(ip, port);
+        System.out.printf("[NETWORK] Sent CHAIN_TIP to %s | Port: %d (%d blocks)%n", ip, port, this.blockchain.getChain().size());
     }
 
     public void sendMessage(String ip, int port, Message message) {
@@ -137,10 +147,11 @@ public class NetworkEngine {
 
     public void broadcastBlock(Block block) {
         try {
-            String canonicalData = block.getCanonicalData();
-            String assinatura = CryptoUtil.signData(canonicalData.getBytes(StandardCharsets.UTF_8), this.keyPair.getPrivate());
+            String assinatura = CryptoUtil.signData(block.getCanonicalBytes(), this.keyPair.getPrivate());
             block.setSignature(assinatura);
-            block.setPublicKey(this.publicKeyBase64);
+            if (block.getKeyId() == null) {
+                block.setPublicKey(this.publicKeyBase64);
+            }
             System.out.println("[BLOCK] Block signed successfully.");
         } catch (Exception e) {
             System.err.println("[BLOCK] Error signing block: " + e.getMessage());
@@ -152,12 +163,9 @@ public class NetworkEngine {
         broadcastMessage(message);
     }
 
-    public void sendBlockchainToPeer(String ip, int port) {
-        Gson gson = new Gson();
-        String blockchainJson = gson.toJson(this.blockchain.getChain());
-        Message blockchainSync = new Message("BLOCKCHAIN_SYNC_RESPONSE", getLocalNodeId(), blockchainJson);
-        sendMessage(ip, port, blockchainSync);
-        System.out.println("[NETWORK] Blockchain sent for on-demand synchronization.");
+    public void sendChainTipToPeer(String ip, int port) {
+        chainSync.sendChainTip(ip, port);
+        System.out.println("[NETWORK] Chain tip sent for on-demand synchronization.");
     }
 
     public void sendPing(String ip, int port) {
@@ -179,6 +187,22 @@ public class NetworkEngine {
         return routingTable;
     }
 
+    public MessageDispatcher getDispatcher() {
+        return server.getDispatcher();
+    }
+
+    public ChainSync getChainSync() {
+        return chainSync;
+    }
+
+    public Mempool getMempool() {
+        return mempool;
+    }
+
+    public BlockAssembler getBlockAssembler() {
+        return blockAssembler;
+    }
+
     public PeerManager getPeerManager() {
         return peerManager;
     }
@@ -1,39 +1,47 @@
 package network.kad;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import util.HashUtil;
+
+import java.io.IOException;
 import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.Charset;
 import java.security.PublicKey;
+import java.util.Arrays;
 
+/**
+ * Node id held as raw bytes. On the wire it keeps its original {"value": hex} form.
+ */
+@JsonAdapter(KademliaID.Adapter.class)
 public class KademliaID {
-    private String value;
+    private final byte[] bytes;
+    private final int hash;
+    private String hex;
 
     public static KademliaID fromPublicKey(PublicKey key) {
-        try {
-            byte[] encoded = key.getEncoded();
-            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
-            byte[] hash = sha1.digest(encoded);
-            return new KademliaID(hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not available", e);
-        }
+        return new KademliaID(HashUtil.sha1Bytes(key.getEncoded()));
     }
 
     public KademliaID(String seed) {
-        this.value = sha1(seed);
+        this(HashUtil.sha1Bytes(seed.getBytes(Charset.defaultCharset())));
     }
 
     public KademliaID(byte[] bytes) {
-        this.value = bytesToHex(bytes);
+        this.bytes = bytes.clone();
+        this.hash = Arrays.hashCode(this.bytes);
     }
 
     public byte[] getBytes() {
-        return hexStringToByteArray(value);
+        return bytes.clone();
     }
 
     public BigInteger getDistance(KademliaID other) {
-        byte[] a = this.getBytes();
-        byte[] b = other.getBytes();
+        byte[] a = this.bytes;
+        byte[] b = other.bytes;
         byte[] xor = new byte[a.length];
 
         for (int i = 0; i < a.length; i++) {
@@ -43,43 +51,14 @@ public class KademliaID {
         return new BigInteger(1, xor);
     }
 
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
-    }
-
-    private byte[] hexStringToByteArray(String hex) {
-        int len = hex.length();
-        byte[] result = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            result[i / 2] = (byte) (
-                    (Character.digit(hex.charAt(i), 16) << 4)
-                            + Character.digit(hex.charAt(i + 1), 16)
-            );
-        }
-        return result;
-    }
-
-    private String sha1(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] bytes = md.digest(input.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : bytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not supported", e);
-        }
-    }
-
     @Override
     public String toString() {
-        return value;
+        String h = hex;
+        if (h == null) {
+            h = HashUtil.toHex(bytes);
+            hex = h;
+        }
+        return h;
     }
 
     @Override
@@ -87,11 +66,41 @@ public class KademliaID {
         if (this == o) return true;
         if (!(o instanceof KademliaID)) return false;
         KademliaID other = (KademliaID) o;
-        return this.value.equals(other.value);
+        return Arrays.equals(this.bytes, other.bytes);
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return hash;
+    }
+
+    static class Adapter extends TypeAdapter<KademliaID> {
+        @Override
+        public void write(JsonWriter out, KademliaID id) throws IOException {
+            if (id == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject().name("value").value(id.toString()).endObject();
+        }
+
+        @Override
+        public KademliaID read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            KademliaID id = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("value")) {
+                    id = new KademliaID(HashUtil.fromHex(in.nextString()));
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return id;
+        }
     }
 }
@@ -0,0 +1,239 @@
+package network.netty;
+
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import util.CompressionUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wire format for peer messages. A binary frame is
+ * [magic:byte][length:int][version:byte][type:byte][flags:byte]([type name]) [senderId][senderIp][senderPort:int][payload],
+ * where strings are [length:ushort][utf-8 bytes] and the payload is the raw, optionally deflated,
+ * UTF-8 bytes, decoded only when a handler asks for it. Older nodes send newline-terminated JSON;
+ * the decoder tells the two apart by the first byte of each frame, so both share one port.
+ * A peer is sent binary frames once its HELLO, or any binary frame from it, shows it can read them.
+ */
+public final class FrameCodec {
+
+    public static final int VERSION = 1;
+    public static final int MAX_FRAME_BYTES = Integer.getInteger("net.maxFrameBytes", 16 * 1024 * 1024);
+
+    // Never the first byte of a JSON line.
+    private static final byte MAGIC = (byte) 0xB7;
+    private static final int FLAG_DEFLATED = 1;
+    private static final int FLAG_NULL_PAYLOAD = 2;
+    private static final int NULL_STRING = 0xFFFF;
+
+    // Wire codes are positions in this list; append new types at the end. Code 0 carries the name.
+    private static final List<String> TYPES = List.of(
+            "HELLO", "PEER_LIST", "PING", "PONG", "STORE", "FIND_NODE", "FIND_NODE_RESPONSE", "FIND_VALUE",
+            "FIND_VALUE_RESPONSE", "SUBSCRIBE", "UNSUBSCRIBE", "PUBLISH", "NOTIFY", "CREATE_AUCTION", "BID",
+            "CLOSE_AUCTION", "TRANSACTION", "BLOCK", "CHAIN_TIP", "GET_BLOCKS", "BLOCKS", "BLOCKCHAIN_REQUEST");
+    private static final Map<String, Integer> TYPE_CODES = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < TYPES.size(); i++) {
+            TYPE_CODES.put(TYPES.get(i), i + 1);
+        }
+    }
+
+    private static final Set<String> binaryPeers = ConcurrentHashMap.newKeySet();
+
+    private FrameCodec() {
+    }
+
+    public static void markBinaryPeer(String ip, int port) {
+        if (ip != null && binaryPeers.add(ip + ":" + port)) {
+            System.out.printf("[NETWORK] %s:%d supports binary framing.%n", ip, port);
+        }
+    }
+
+    public static boolean isBinaryPeer(String ip, int port) {
+        return binaryPeers.contains(ip + ":" + port);
+    }
+
+    /**
+     * Encodes a complete binary frame. A payload of at least compressThreshold bytes is deflated
+     * when that makes it smaller.
+     */
+    public static byte[] encode(Message message, int compressThreshold) {
+        int flags = 0;
+        byte[] payload;
+        if (message.getPayload() == null) {
+            payload = new byte[0];
+            flags |= FLAG_NULL_PAYLOAD;
+        } else {
+            payload = message.getPayload().getBytes(StandardCharsets.UTF_8);
+            if (compressThreshold >= 0 && payload.length >= compressThreshold) {
+                byte[] deflated = CompressionUtil.deflate(payload, null);
+                if (deflated.length < payload.length) {
+                    CompressionUtil.recordWire(payload.length, deflated.length);
+                    payload = deflated;
+                    flags |= FLAG_DEFLATED;
+                }
+            }
+        }
+
+        int typeCode = TYPE_CODES.getOrDefault(message.getType(), 0);
+        byte[] typeName = typeCode == 0 ? utf8(message.getType()) : null;
+        byte[] senderId = utf8(message.getSenderId());
+        byte[] senderIp = utf8(message.getSenderIp());
+        int length = 3 + (typeCode == 0 ? stringBytes(typeName) : 0) + stringBytes(senderId) + stringBytes(senderIp)
+                + Integer.BYTES + payload.length;
+
+        ByteBuffer frame = ByteBuffer.allocate(1 + Integer.BYTES + length);
+        frame.put(MAGIC);
+        frame.putInt(length);
+        frame.put((byte) VERSION);
+        frame.put((byte) typeCode);
+        frame.put((byte) flags);
+        if (typeCode == 0) {
+            putString(frame, typeName);
+        }
+        putString(frame, senderId);
+        putString(frame, senderIp);
+        frame.putInt(message.getSenderPort());
+        frame.put(payload);
+        return frame.array();
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringBytes(byte[] value) {
+        return Short.BYTES + (value == null ? 0 : value.length);
+    }
+
+    private static void putString(ByteBuffer frame, byte[] value) {
+        if (value == null) {
+            frame.putShort((short) NULL_STRING);
+            return;
+        }
+        if (value.length >= NULL_STRING) {
+            throw new IllegalArgumentException("Header field too long: " + value.length + " bytes");
+        }
+        frame.putShort((short) value.length);
+        frame.put(value);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = in.readUnsignedShort();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length > in.readableBytes()) {
+            throw new CorruptedFrameException("Header field runs past the end of the frame");
+        }
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    /**
+     * Splits the inbound stream into messages, frame by frame, in either format. Not sharable.
+     */
+    public static final class Decoder extends ByteToMessageDecoder {
+        private static final Gson gson = new Gson();
+
+        private final int maxFrameBytes;
+        // How far the current JSON line has already been searched for its newline.
+        private int lineScanned;
+
+        public Decoder(int maxFrameBytes) {
+            this.maxFrameBytes = maxFrameBytes;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            if (!in.isReadable()) {
+                return;
+            }
+            if (in.getByte(in.readerIndex()) == MAGIC) {
+                decodeBinary(in, out);
+            } else {
+                decodeLine(in, out);
+            }
+        }
+
+        private void decodeBinary(ByteBuf in, List<Object> out) {
+            if (in.readableBytes() < 1 + Integer.BYTES) {
+                return;
+            }
+            int length = in.getInt(in.readerIndex() + 1);
+            if (length < 3 || length > maxFrameBytes) {
+                throw new TooLongFrameException("Invalid frame length " + length + " (max " + maxFrameBytes + ")");
+            }
+            if (in.readableBytes() < 1 + Integer.BYTES + length) {
+                return;
+            }
+            in.skipBytes(1 + Integer.BYTES);
+            ByteBuf frame = in.readSlice(length);
+
+            int version = frame.readUnsignedByte();
+            if (version != VERSION) {
+                throw new CorruptedFrameException("Unsupported frame version " + version);
+            }
+            int typeCode = frame.readUnsignedByte();
+            int flags = frame.readUnsignedByte();
+            String type = typeCode == 0 ? readString(frame) : typeCode <= TYPES.size() ? TYPES.get(typeCode - 1) : null;
+            if (type == null) {
+                throw new CorruptedFrameException("Unknown message type " + typeCode);
+            }
+            String senderId = readString(frame);
+            String senderIp = readString(frame);
+            if (frame.readableBytes() < Integer.BYTES) {
+                throw new CorruptedFrameException("Truncated frame header");
+            }
+            int senderPort = frame.readInt();
+            byte[] payload = null;
+            if ((flags & FLAG_NULL_PAYLOAD) == 0) {
+                payload = new byte[frame.readableBytes()];
+                frame.readBytes(payload);
+            }
+
+            Message message = new Message(type, senderId, payload, (flags & FLAG_DEFLATED) != 0);
+            message.setSenderIp(senderIp);
+            message.setSenderPort(senderPort);
+            markBinaryPeer(senderIp, senderPort);
+            out.add(message);
+        }
+
+        private void decodeLine(ByteBuf in, List<Object> out) {
+            int start = in.readerIndex();
+            int end = in.indexOf(start + lineScanned, in.writerIndex(), (byte) '\n');
+            if (end < 0) {
+                lineScanned = in.readableBytes();
+                if (lineScanned > maxFrameBytes) {
+                    throw new TooLongFrameException("JSON line exceeds " + maxFrameBytes + " bytes");
+                }
+                return;
+            }
+            lineScanned = 0;
+            int length = end - start;
+            if (length > 0 && in.getByte(end - 1) == '\r') {
+                length--;
+            }
+            String line = in.toString(start, length, StandardCharsets.UTF_8);
+            in.readerIndex(end + 1);
+            if (line.isEmpty()) {
+                return;
+            }
+            try {
+                out.add(gson.fromJson(line, Message.class));
+            } catch (Exception e) {
+                System.err.println("[NETWORK] Failed to parse incoming message: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package network.netty;
 
+import util.CompressionUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+
 public class Message {
     private String type;
     private String senderId;
     private String payload;
     private String senderIp;
     private int senderPort;
+    // Payload of a binary frame, turned into a string the first time it is read.
+    private transient byte[] payloadBytes;
+    private transient boolean payloadDeflated;
 
     public Message(String type, String senderId, String payload) {
         this.type = type;
@@ -13,6 +21,13 @@ public class Message {
         this.payload = payload;
     }
 
+    Message(String type, String senderId, byte[] payloadBytes, boolean payloadDeflated) {
+        this.type = type;
+        this.senderId = senderId;
+        this.payloadBytes = payloadBytes;
+        this.payloadDeflated = payloadDeflated;
+    }
+
     public String getType() {
         return type;
     }
@@ -21,10 +36,33 @@ public class Message {
         return senderId;
     }
 
-    public String getPayload() {
+    public synchronized String getPayload() {
+        if (payloadBytes != null) {
+            byte[] bytes = payloadBytes;
+            if (payloadDeflated) {
+                try {
+                    bytes = CompressionUtil.inflate(bytes, null, FrameCodec.MAX_FRAME_BYTES);
+                } catch (DataFormatException e) {
+                    throw new IllegalArgumentException("Rejected compressed payload in " + type + " message: " + e.getMessage(), e);
+                }
+            }
+            payload = new String(bytes, StandardCharsets.UTF_8);
+            payloadBytes = null;
+        }
         return payload;
     }
 
+    /**
+     * Rough memory held by the payload: the frame bytes while it is still undecoded, otherwise two
+     * bytes per character.
+     */
+    public synchronized int approximateSize() {
+        if (payloadBytes != null) {
+            return payloadBytes.length;
+        }
+        return payload == null ? 0 : payload.length() * 2;
+    }
+
     public String getSenderIp() {
         return senderIp;
     }
@@ -40,4 +78,5 @@ public class Message {
     public void setSenderPort(int senderPort) {
         this.senderPort = senderPort;
     }
+
 }
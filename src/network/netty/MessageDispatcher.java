@@ -0,0 +1,213 @@
+package network.netty;
+
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands incoming messages from the Netty event loops to worker lanes, so that mining, signature
+ * checks and disk writes never hold up socket I/O. Each message type belongs to one lane with its
+ * own threads and bounded queue; the chain and auction lanes run on a single thread so their
+ * messages are handled in arrival order. A lane is bounded both in messages and in payload bytes.
+ * Once either passes three quarters of its limit, the channel that filled it stops reading until
+ * both have drained to a quarter. Lane sizes are set with net.dispatch.&lt;lane&gt;.threads,
+ * net.dispatch.&lt;lane&gt;.queue and net.dispatch.&lt;lane&gt;.bytes.
+ */
+public class MessageDispatcher {
+
+    private static final String DEFAULT_LANE = "peer";
+    private static final long DEFAULT_LANE_BYTES = 4L * FrameCodec.MAX_FRAME_BYTES;
+    private static final Map<String, String> LANES = Map.ofEntries(
+            Map.entry("BLOCK", "chain"),
+            Map.entry("BLOCKS", "chain"),
+            Map.entry("GET_BLOCKS", "chain"),
+            Map.entry("CHAIN_TIP", "chain"),
+            Map.entry("BLOCKCHAIN_REQUEST", "chain"),
+            Map.entry("TRANSACTION", "tx"),
+            Map.entry("CREATE_AUCTION", "auction"),
+            Map.entry("BID", "auction"),
+            Map.entry("CLOSE_AUCTION", "auction"),
+            Map.entry("SUBSCRIBE", "auction"),
+            Map.entry("UNSUBSCRIBE", "auction"),
+            Map.entry("PUBLISH", "auction"),
+            Map.entry("NOTIFY", "auction"));
+
+    private final MessageHandler messageHandler;
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+
+    public MessageDispatcher(MessageHandler messageHandler) {
+        this.messageHandler = messageHandler;
+        addLane("chain", 1, 256);
+        addLane("tx", Runtime.getRuntime().availableProcessors(), 1024);
+        addLane("auction", 1, 1024);
+        addLane(DEFAULT_LANE, 2, 1024);
+    }
+
+    private void addLane(String name, int threads, int capacity) {
+        threads = Math.max(1, Integer.getInteger("net.dispatch." + name + ".threads", threads));
+        capacity = Math.max(4, Integer.getInteger("net.dispatch." + name + ".queue", capacity));
+        long maxBytes = Math.max(4, Long.getLong("net.dispatch." + name + ".bytes", DEFAULT_LANE_BYTES));
+        lanes.put(name, new Lane(name, threads, capacity, maxBytes));
+    }
+
+    public void dispatch(Channel channel, Message message) {
+        lanes.get(LANES.getOrDefault(message.getType(), DEFAULT_LANE)).submit(channel, message);
+    }
+
+    public String stats() {
+        List<String> parts = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            parts.add(lane.stats());
+        }
+        return String.join("; ", parts);
+    }
+
+    public void shutdown() {
+        for (Lane lane : lanes.values()) {
+            lane.executor.shutdown();
+        }
+    }
+
+    // Reads are only switched on the channel's event loop, from what every lane holds at that moment,
+    // so a pause and a resume racing on different threads settle on the latest state.
+    private void updateAutoRead(Channel channel) {
+        if (channel.eventLoop().inEventLoop()) {
+            channel.config().setAutoRead(!pausedByAnyLane(channel));
+        } else {
+            channel.eventLoop().execute(() -> channel.config().setAutoRead(!pausedByAnyLane(channel)));
+        }
+    }
+
+    private boolean pausedByAnyLane(Channel channel) {
+        for (Lane lane : lanes.values()) {
+            if (lane.paused.contains(channel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class Lane {
+        private final String name;
+        private final int capacity;
+        private final int highWater;
+        private final int lowWater;
+        private final long maxBytes;
+        private final long highWaterBytes;
+        private final long lowWaterBytes;
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final ThreadPoolExecutor executor;
+        private final Set<Channel> paused = ConcurrentHashMap.newKeySet();
+
+        private final AtomicLong handled = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+
+        Lane(String name, int threads, int capacity, long maxBytes) {
+            this.name = name;
+            this.capacity = capacity;
+            this.highWater = capacity * 3 / 4;
+            this.lowWater = capacity / 4;
+            this.maxBytes = maxBytes;
+            this.highWaterBytes = maxBytes * 3 / 4;
+            this.lowWaterBytes = maxBytes / 4;
+            AtomicInteger count = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(capacity), runnable -> {
+                        Thread thread = new Thread(runnable, "dispatch-" + name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        void submit(Channel channel, Message message) {
+            long queuedAt = System.nanoTime();
+            int size = message.approximateSize();
+            // A single message larger than the byte limit still goes through on an empty lane.
+            long bytes = queuedBytes.addAndGet(size);
+            if (bytes > maxBytes && bytes > size) {
+                queuedBytes.addAndGet(-size);
+                drop(channel, message);
+                return;
+            }
+            try {
+                executor.execute(() -> run(message, size, queuedAt));
+            } catch (RejectedExecutionException e) {
+                queuedBytes.addAndGet(-size);
+                drop(channel, message);
+                return;
+            }
+            int depth = executor.getQueue().size();
+            maxDepth.accumulateAndGet(depth, Math::max);
+            if (depth >= highWater || bytes >= highWaterBytes) {
+                pause(channel);
+            }
+        }
+
+        private void drop(Channel channel, Message message) {
+            dropped.incrementAndGet();
+            System.err.printf("[NETWORK] %s queue full; dropped %s from %s:%d%n",
+                    name, message.getType(), message.getSenderIp(), message.getSenderPort());
+            pause(channel);
+        }
+
+        private void pause(Channel channel) {
+            if (!paused.add(channel)) {
+                return;
+            }
+            updateAutoRead(channel);
+            System.out.printf("[NETWORK] %s queue at %d/%d (%d bytes); pausing reads from %s%n",
+                    name, executor.getQueue().size(), capacity, queuedBytes.get(), channel.remoteAddress());
+            // The queue may have drained between the check and the pause.
+            resumeIfDrained();
+        }
+
+        private void run(Message message, int size, long queuedAt) {
+            long wait = System.nanoTime() - queuedAt;
+            totalWaitNanos.addAndGet(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            try {
+                messageHandler.handleMessage(message, message.getSenderIp(), message.getSenderPort());
+            } catch (Exception e) {
+                System.err.println("[NETWORK] Failed to handle incoming message: " + e.getMessage());
+            } finally {
+                handled.incrementAndGet();
+                queuedBytes.addAndGet(-size);
+                resumeIfDrained();
+            }
+        }
+
+        private void resumeIfDrained() {
+            if (paused.isEmpty() || executor.getQueue().size() > lowWater || queuedBytes.get() > lowWaterBytes) {
+                return;
+            }
+            for (Iterator<Channel> it = paused.iterator(); it.hasNext(); ) {
+                Channel channel = it.next();
+                it.remove();
+                updateAutoRead(channel);
+            }
+        }
+
+        String stats() {
+            long count = handled.get();
+            double avgWaitMs = count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+            return String.format("%s %d/%d queued (max %d), %d bytes held, %d handled, %d dropped, wait %.2f ms avg / %.2f ms max, %d paused",
+                    name, executor.getQueue().size(), capacity, maxDepth.get(), queuedBytes.get(), count, dropped.get(),
+                    avgWaitMs, maxWaitNanos.get() / 1e6, paused.size());
+        }
+    }
+}
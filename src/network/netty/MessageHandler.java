@@ -2,10 +2,10 @@ package network.netty;
 
 import auction.*;
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import consensus.PoRConsensus;
 import consensus.PoWConsensus;
 import ledger.Block;
+import ledger.BlockValidator;
 import ledger.Blockchain;
 import ledger.Transaction;
 import network.HelloPayload;
@@ -15,23 +15,24 @@ import network.kad.KademliaID;
 import network.kad.Node;
 import network.kad.TrustRegistry;
 import util.CryptoUtil;
-import java.util.Timer;
-import java.util.TimerTask;
+import util.ExpiringSet;
 
-import java.lang.reflect.Type;
 import java.security.MessageDigest;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class MessageHandler {
     private final KadStore kadStore;
     private final String localNodeId;
     private final String localIp;
     private final int localPort;
-    private final Set<String> helloSentRecently = Collections.synchronizedSet(new HashSet<>());
-    private final Set<String> recentlyHandledFindValueKeys = ConcurrentHashMap.newKeySet();
-    private final Set<String> handledNotifies = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private final Set<String> peerListSentRecently = Collections.synchronizedSet(new HashSet<>());
+    private static final long DEDUP_MS = Long.getLong("net.dedupMs", 10_000L);
+    private static final long NOTIFY_DEDUP_MS = Long.getLong("net.notifyDedupMs", 10 * 60_000L);
+    private static final int DEDUP_MAX_ENTRIES = Integer.getInteger("net.dedupMaxEntries", 65_536);
+
+    private final ExpiringSet<String> helloSentRecently = new ExpiringSet<>(DEDUP_MS, DEDUP_MAX_ENTRIES);
+    private final ExpiringSet<String> recentlyHandledFindValueKeys = new ExpiringSet<>(DEDUP_MS, DEDUP_MAX_ENTRIES);
+    private final ExpiringSet<String> handledNotifies = new ExpiringSet<>(NOTIFY_DEDUP_MS, DEDUP_MAX_ENTRIES);
+    private final ExpiringSet<String> peerListSentRecently = new ExpiringSet<>(DEDUP_MS, DEDUP_MAX_ENTRIES);
 
     private NetworkEngine networkEngine;
     private AuctionManager auctionManager;
@@ -96,10 +97,9 @@ public class MessageHandler {
                 PubSubMessage notifyMsg = gson.fromJson(message.getPayload(), PubSubMessage.class);
                 String eventKey = notifyMsg.topic + ":" + notifyMsg.content + ":" + notifyMsg.timestamp;
 
-                if (handledNotifies.contains(eventKey)) {
+                if (!handledNotifies.add(eventKey)) {
                     break;
                 }
-                handledNotifies.add(eventKey);
                 System.out.printf("[PUBSUB] Notification received (topic: %s): %s\n", notifyMsg.topic, notifyMsg.content);
                 break;
 
@@ -175,25 +175,20 @@ public class MessageHandler {
                     break;
                 }
 
-                try {
-                    String canonicalData = block.getCanonicalData();
-                    boolean validSignature = CryptoUtil.verifySignature(
-                            canonicalData.getBytes(),
-                            block.getSignature(),
-                            CryptoUtil.base64ToPublicKey(block.getPublicKey())
-                    );
-
-                    if (!validSignature) {
-                        System.err.println("[BLOCK] Error validating block. Rejected ");
-                        return;
-                    }
+                if (!blockchain.containsBlock(block.getPreviousHash())) {
+                    System.out.println("[BLOCK] Parent block unknown. Requesting missing blocks from sender.");
+                    networkEngine.getChainSync().requestBlocks(senderIp, senderPort);
+                    break;
+                }
 
-                    boolean valid = networkEngine.getConsensusEngine().validateBlock(block, blockchain);
-                    if (valid) {
-                        boolean added = blockchain.addBlock(block, networkEngine.getConsensusEngine(), networkEngine);
+                try {
+                    BlockValidator.Result result = blockchain.validateBlock(block, networkEngine.getConsensusEngine());
+                    if (result.isValid()) {
+                        boolean added = blockchain.addBlock(block, result, networkEngine.getConsensusEngine(), networkEngine);
 
                         if (added) {
                             System.out.println("[BLOCK] Block validated and added successfully.");
+                            networkEngine.getMempool().removeAll(block.getTransactions());
 
                             for (Transaction tx : block.getTransactions()) {
                                 String txId = tx.getSenderId() + tx.getPayload() + tx.getTimestamp();
@@ -214,10 +209,12 @@ public class MessageHandler {
                         }
 
                     } else {
-                        System.out.println("[BLOCK] Invalid block (" + networkEngine.getConsensusEngine().getName() + ").");
+                        System.out.println("[BLOCK] Invalid block (" + networkEngine.getConsensusEngine().getName() + ") at " + result);
 
-                        if (!block.getTransactions().isEmpty()) {
-                            String senderId = block.getTransactions().get(0).getSenderId();
+                        // Only a block whose signatures verified can be pinned on its signer; the senders
+                        // of its transactions had no say in how or when it was sealed.
+                        if (result.getFailedStage() == BlockValidator.Stage.CONSENSUS) {
+                            String senderId = signerNodeId(block);
 
                             if (networkEngine != null && senderId != null) {
                                 double penalty = (networkEngine.getConsensusEngine() instanceof PoRConsensus) ? 0.10 :
@@ -252,11 +249,15 @@ public class MessageHandler {
                         System.out.println("[TRANSACTION] Transaction already exists in blockchain or reputation already updated. Ignoring.");
                         break;
                     }
-                    String txData = receivedTx.getSenderId() + receivedTx.getPayload() + receivedTx.getTimestamp();
+                    String senderKey = receivedTx.resolvePublicKey();
+                    if (senderKey == null) {
+                        System.err.println("[TRANSACTION] Unknown key id " + receivedTx.getKeyId() + ". Ignoring.");
+                        break;
+                    }
                     boolean validSignature = CryptoUtil.verifySignature(
-                            txData.getBytes(),
+                            receivedTx.getSigningBytes(),
                             receivedTx.getSignature(),
-                            CryptoUtil.base64ToPublicKey(receivedTx.getPublicKey())
+                            CryptoUtil.base64ToPublicKey(senderKey)
                     );
 
                     if (!validSignature) {
@@ -268,29 +269,8 @@ public class MessageHandler {
                         break;
                     }
 
-                    List<Transaction> txList = new ArrayList<>();
-                    txList.add(receivedTx);
-                    Block newBlock = networkEngine.getConsensusEngine().generateNextBlock(txList, blockchain, networkEngine.getKeyPair());
-
-                    if (networkEngine.getConsensusEngine().validateBlock(newBlock, blockchain)) {
-                        if (blockchain.addBlock(newBlock, networkEngine.getConsensusEngine(), networkEngine)) {
-                            System.out.println("[BLOCK] Block created and added with received transaction.");
-                            networkEngine.broadcastBlock(newBlock);
-
-                            networkEngine.getReputationEngine().registerSuccess(receivedTx.getSenderId());
-                            networkEngine.getReputationEngine().markTransactionProcessed(txId);
-                            System.out.printf("[REPUTATION] Reputation increased for %s (%s block created).\n",
-                                    receivedTx.getSenderId(), networkEngine.getConsensusEngine().getName());
-                        } else {
-                            System.err.println("[BLOCK] Block with transaction could not be added.");
-                        }
-                    } else {
-                        System.err.println("[BLOCK] Block generated from transaction was rejected by consensus.");
-
-                        double penalty = (networkEngine.getConsensusEngine() instanceof PoRConsensus) ? 0.10 : 0.03;
-                        networkEngine.getReputationEngine().registerFailure(receivedTx.getSenderId(), penalty);
-                        System.out.printf("[REPUTATION] Penalty %.2f applied to %s (%s rejected the block).\n",
-                                penalty, receivedTx.getSenderId(), networkEngine.getConsensusEngine().getName());
+                    if (!networkEngine.getBlockAssembler().submit(receivedTx)) {
+                        System.out.println("[TRANSACTION] Transaction already pending in the mempool. Ignoring.");
                     }
 
                 } catch (Exception e) {
@@ -299,18 +279,22 @@ public class MessageHandler {
                 }
                 break;
 
-            case "BLOCKCHAIN_SYNC":
-                Type blockListType = new TypeToken<List<Block>>() {}.getType();
-                List<Block> receivedChain = gson.fromJson(message.getPayload(), blockListType);
-                blockchain.loadFromReceivedChain(receivedChain);
-                System.out.println("[BLOCKCHAIN] Received BLOCKCHAIN_SYNC");
-                System.out.println("[BLOCKCHAIN] Blockchain synced from peer. New block count: " + receivedChain.size());
+            case "CHAIN_TIP":
+                networkEngine.getChainSync().handleChainTip(message, senderIp, senderPort);
+                break;
+
+            case "GET_BLOCKS":
+                networkEngine.getChainSync().handleGetBlocks(message, senderIp, senderPort);
+                break;
+
+            case "BLOCKS":
+                networkEngine.getChainSync().handleBlocks(message, senderIp, senderPort);
                 break;
 
             case "BLOCKCHAIN_REQUEST":
                 String requesterIp = message.getSenderIp();
                 int requesterPort = message.getSenderPort();
-                networkEngine.sendBlockchainToPeer(requesterIp, requesterPort);
+                networkEngine.sendChainTipToPeer(requesterIp, requesterPort);
                 break;
 
             case "PING":
@@ -388,18 +372,10 @@ public class MessageHandler {
                         break;
                     }
 
-                    if (recentlyHandledFindValueKeys.contains(fallback.key)) {
+                    if (!recentlyHandledFindValueKeys.add(fallback.key)) {
                         System.out.println("[NETWORK] FIND_VALUE ignored (already forwarded for key: " + fallback.key + ")");
                         break;
                     }
-                    recentlyHandledFindValueKeys.add(fallback.key);
-                    new Timer().schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            recentlyHandledFindValueKeys.remove(fallback.key);
-                            System.out.println("[NETWORK] FIND_VALUE cache cleared for key (fallback): " + fallback.key);
-                        }
-                    }, 10_000);
 
                     System.out.println("[NETWORK] Nodes returned via fallback:");
                     for (Node node : fallback.nodes) {
@@ -425,7 +401,7 @@ public class MessageHandler {
                 String lookupKey = message.getPayload();
                 System.out.println("[NETWORK] FIND_VALUE requested for key: " + lookupKey);
 
-                if (recentlyHandledFindValueKeys.contains(lookupKey)) {
+                if (!recentlyHandledFindValueKeys.add(lookupKey)) {
                     String cachedValue = kadStore.get(lookupKey);
 
                     if (cachedValue != null) {
@@ -444,15 +420,6 @@ public class MessageHandler {
                     break;
                 }
 
-                recentlyHandledFindValueKeys.add(lookupKey);
-                new Timer().schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        recentlyHandledFindValueKeys.remove(lookupKey);
-                        System.out.println("[NETWORK] FIND_VALUE cache cleared for key: " + lookupKey);
-                    }
-                }, 10_000);
-
                 String foundValue = kadStore.get(lookupKey);
 
                 if (foundValue != null) {
@@ -531,18 +498,13 @@ public class MessageHandler {
         Gson gson = new Gson();
         try {
             HelloPayload payload = gson.fromJson(msg.getPayload(), HelloPayload.class);
+            if (payload.wireVersion >= FrameCodec.VERSION) {
+                FrameCodec.markBinaryPeer(payload.ip, payload.port);
+            }
             String shortNodeId = payload.nodeId.substring(0, 8) + "..." + payload.nodeId.substring(payload.nodeId.length() - 4);
 
             if (payload.nodeId.equals(localNodeId)) return;
-            if (helloSentRecently.contains(payload.nodeId)) return;
-
-            helloSentRecently.add(payload.nodeId);
-            new Timer().schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    helloSentRecently.remove(payload.nodeId);
-                }
-            }, 10000);
+            if (!helloSentRecently.add(payload.nodeId)) return;
 
             double trustScore = TrustRegistry.trustManager.getTrust(payload.nodeId);
             if (trustScore < 0.2) return;
@@ -565,9 +527,7 @@ public class MessageHandler {
                 System.out.printf("Peer added to routing table: %s%n", shortNodeId);
             }
 
-            if (!peerListSentRecently.contains(payload.nodeId)) {
-                peerListSentRecently.add(payload.nodeId);
-
+            if (peerListSentRecently.add(payload.nodeId)) {
                 List<Node> peers = new ArrayList<>(networkEngine.getPeerManager().getAllKnownPeers());
                 peers.add(networkEngine.getLocalNode());
 
@@ -578,13 +538,6 @@ public class MessageHandler {
                 networkEngine.sendMessage(payload.ip, payload.port, peerListMsg);
 
                 System.out.printf("Sent PEER_LIST to %s (%d peers)%n", shortNodeId, peers.size());
-
-                new Timer().schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        peerListSentRecently.remove(payload.nodeId);
-                    }
-                }, 10000);
             }
 
             auctionManager.sendAllAuctionsToNode(newNode);
@@ -594,6 +547,15 @@ public class MessageHandler {
         }
     }
 
+    private static String signerNodeId(Block block) {
+        try {
+            String publicKey = block.resolvePublicKey();
+            return publicKey == null ? null : KademliaID.fromPublicKey(CryptoUtil.base64ToPublicKey(publicKey)).toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private void handlePeerList(Message msg) {
         Gson gson = new Gson();
         try {
@@ -623,9 +585,7 @@ public class MessageHandler {
 
                 boolean added = networkEngine.getPeerManager().addPeer(peerId, ip, port);
 
-                if (added && !helloSentRecently.contains(peerId)) {
-                    helloSentRecently.add(peerId);
-
+                if (added && helloSentRecently.add(peerId)) {
                     Message hello = new Message("HELLO", localNodeId,
                             gson.toJson(new HelloPayload(localNodeId, localIp, localPort)));
                     hello.setSenderIp(localIp);
@@ -633,13 +593,6 @@ public class MessageHandler {
                     networkEngine.sendMessage(ip, port, hello);
 
                     System.out.printf("Sent HELLO to %s | IP: %s | Port: %d%n", shortId, ip, port);
-
-                    new Timer().schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            helloSentRecently.remove(peerId);
-                        }
-                    }, 10000);
                 }
             }
 
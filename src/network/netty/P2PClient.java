@@ -2,66 +2,164 @@ package network.netty;
 
 import com.google.gson.Gson;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.codec.string.StringEncoder;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import util.TLSUtil;
 
-import java.util.concurrent.TimeUnit;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Sends messages over pooled TLS connections, one small pool per peer. Connections are opened
+ * and handshaken on first use, reused for every later message to that peer, and closed once
+ * they have been idle for net.idleSeconds. With the default of one connection per peer,
+ * messages to a peer arrive in the order they were sent. All clients share one event loop group.
+ */
 public class P2PClient {
     private static final Gson gson = new Gson();
+    private static final int COMPRESS_THRESHOLD = Integer.getInteger("net.compressThreshold", 1024);
+    private static final int POOL_SIZE = Integer.getInteger("net.poolSize", 1);
+    private static final int MAX_PENDING_SENDS = Integer.getInteger("net.maxPendingSends", 1024);
+    private static final int CONNECT_TIMEOUT_MS = Integer.getInteger("net.connectTimeoutMs", 3000);
+    private static final int IDLE_SECONDS = Integer.getInteger("net.idleSeconds", 60);
+    private static final EventLoopGroup group = new NioEventLoopGroup(0, new DefaultThreadFactory("p2p-client", true));
+
     private final int localPort;
     private final String localIp;
+    private final Bootstrap bootstrap;
+    private final Map<InetSocketAddress, FixedChannelPool> pools = new ConcurrentHashMap<>();
+    private volatile SslContext sslContext;
 
     public P2PClient(String localIp, int localPort) {
         this.localIp = localIp;
         this.localPort = localPort;
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MS);
     }
 
+    /**
+     * Sends as a binary frame, compressed when large, to peers whose HELLO showed they read them.
+     * Any other peer gets the plain JSON line it has always read.
+     */
     public void send(String ip, int port, Message message) {
-        EventLoopGroup group = new NioEventLoopGroup();
+        message.setSenderIp(localIp);
+        message.setSenderPort(localPort);
+        Object frame;
+        if (FrameCodec.isBinaryPeer(ip, port)) {
+            frame = FrameCodec.encode(message, COMPRESS_THRESHOLD);
+        } else {
+            frame = gson.toJson(message) + "\n";
+        }
 
         try {
-            SslContext sslContext = TLSUtil.createClientContext();
+            send(new InetSocketAddress(ip, port), frame, true);
+        } catch (Exception e) {
+            System.err.println("[NETWORK] Failed to send message to " + ip + ":" + port + " — " + e.getMessage());
+        }
+    }
 
-            Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(group)
-                    .channel(NioSocketChannel.class)
-                    .option(ChannelOption.SO_KEEPALIVE, true)
-                    .handler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) {
-                            ChannelPipeline p = ch.pipeline();
+    // A pooled connection the peer has since dropped fails the write; the message is retried once on a new one.
+    private void send(InetSocketAddress peer, Object frame, boolean retry) throws Exception {
+        FixedChannelPool pool = poolFor(peer);
+        pool.acquire().addListener((io.netty.util.concurrent.Future<Channel> acquired) -> {
+            if (!acquired.isSuccess()) {
+                System.err.println("[NETWORK] Failed to send message to " + peer + " — " + acquired.cause().getMessage());
+                if (pools.remove(peer, pool)) {
+                    pool.close();
+                }
+                return;
+            }
+            Channel channel = acquired.getNow();
+            Object out = frame instanceof byte[] ? Unpooled.wrappedBuffer((byte[]) frame) : frame;
+            channel.writeAndFlush(out).addListener((ChannelFuture written) -> {
+                if (written.isSuccess()) {
+                    pool.release(channel);
+                    return;
+                }
+                channel.close();
+                pool.release(channel);
+                if (retry) {
+                    send(peer, frame, false);
+                } else {
+                    System.err.println("[NETWORK] Failed to send message to " + peer + " — " + written.cause().getMessage());
+                }
+            });
+        });
+    }
 
-                            SslHandler sslHandler = sslContext.newHandler(ch.alloc(), ip, port);
-                            p.addFirst(sslHandler);
+    private FixedChannelPool poolFor(InetSocketAddress peer) throws Exception {
+        SslContext context = sslContext();
+        return pools.computeIfAbsent(peer, address -> new FixedChannelPool(
+                bootstrap.clone().remoteAddress(address),
+                new PeerChannelHandler(context, address),
+                ChannelHealthChecker.ACTIVE,
+                FixedChannelPool.AcquireTimeoutAction.FAIL,
+                CONNECT_TIMEOUT_MS,
+                POOL_SIZE,
+                MAX_PENDING_SENDS));
+    }
 
-                            p.addLast(new StringDecoder());
-                            p.addLast(new StringEncoder());
-                        }
-                    });
+    private SslContext sslContext() throws Exception {
+        SslContext context = sslContext;
+        if (context == null) {
+            synchronized (this) {
+                context = sslContext;
+                if (context == null) {
+                    context = TLSUtil.createClientContext();
+                    sslContext = context;
+                }
+            }
+        }
+        return context;
+    }
 
-            ChannelFuture f = bootstrap.connect(ip, port).sync();
+    private static final class PeerChannelHandler extends AbstractChannelPoolHandler {
+        private final SslContext sslContext;
+        private final InetSocketAddress peer;
 
-            message.setSenderIp(localIp);
-            message.setSenderPort(localPort);
-            String json = gson.toJson(message);
-            f.channel().writeAndFlush(json + "\n");
+        PeerChannelHandler(SslContext sslContext, InetSocketAddress peer) {
+            this.sslContext = sslContext;
+            this.peer = peer;
+        }
 
-            f.channel().eventLoop().schedule(() -> {
-                f.channel().close();
-                group.shutdownGracefully();
-            }, 1, TimeUnit.SECONDS);
+        @Override
+        public void channelCreated(Channel ch) {
+            ChannelPipeline p = ch.pipeline();
+            p.addLast(sslContext.newHandler(ch.alloc(), peer.getHostString(), peer.getPort()));
+            p.addLast(new IdleStateHandler(0, 0, IDLE_SECONDS));
+            p.addLast(new StringEncoder(StandardCharsets.UTF_8));
+            p.addLast(new ChannelInboundHandlerAdapter() {
+                @Override
+                public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                    if (evt instanceof IdleStateEvent) {
+                        ctx.close();
+                    } else {
+                        super.userEventTriggered(ctx, evt);
+                    }
+                }
 
-        } catch (Exception e) {
-            System.err.println("[NETWORK] Failed to send message to " + ip + ":" + port + " — " + e.getMessage());
-            group.shutdownGracefully();
+                @Override
+                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                    System.err.println("[NETWORK] Connection to " + peer + " failed: " + cause.getMessage());
+                    ctx.close();
+                }
+            });
         }
     }
 }
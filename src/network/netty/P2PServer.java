@@ -5,32 +5,47 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.LineBasedFrameDecoder;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import util.CryptoUtil;
 import util.TLSUtil;
 
-import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.cert.X509Certificate;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * TLS server for incoming peer messages. The certificate and SslContext are built once per node
+ * identity when the server starts and shared by every accepted connection.
+ */
 public class P2PServer {
     private final int port;
-    private final MessageHandler messageHandler;
+    private final MessageDispatcher dispatcher;
     private final KeyPair keyPair;
-    private static final AtomicBoolean printedTlsLog = new AtomicBoolean(false);
+    private final X509Certificate certificate;
 
-    public P2PServer(int port, MessageHandler handler, KeyPair keyPair) {
+    public P2PServer(int port, MessageHandler handler, KeyPair keyPair, X509Certificate certificate) {
         this.port = port;
-        this.messageHandler = handler;
+        this.dispatcher = new MessageDispatcher(handler);
         this.keyPair = keyPair;
+        this.certificate = certificate;
+    }
+
+    public MessageDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     public void start() {
+        SslContext sslContext;
+        try {
+            X509Certificate cert = certificate != null ? certificate : CryptoUtil.generateSelfSignedCertificate(keyPair);
+            sslContext = TLSUtil.createServerContext(cert, keyPair.getPrivate());
+            System.out.println("[NETWORK] TLS enabled on Netty server (" + TLSUtil.getProvider() + ").");
+        } catch (Exception e) {
+            System.err.println("[NETWORK] Error configuring SSL on server: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
         EventLoopGroup bossGroup = new NioEventLoopGroup();
         EventLoopGroup workerGroup = new NioEventLoopGroup();
 
@@ -38,30 +53,17 @@ public class P2PServer {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)
+                    .childOption(ChannelOption.SO_KEEPALIVE, true)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
                             ChannelPipeline pipeline = ch.pipeline();
 
-                            try {
-                                X509Certificate cert = CryptoUtil.generateSelfSignedCertificate(keyPair);
-                                SslContext sslContext = TLSUtil.createServerContext(cert, keyPair.getPrivate());
-
-                                if (printedTlsLog.compareAndSet(false, true)) {
-                                    System.out.println("[NETWORK] TLS enabled on Netty server.");
-                                }
-
-                                SslHandler sslHandler = sslContext.newHandler(ch.alloc());
-                                pipeline.addFirst(sslHandler);
-                            } catch (Exception e) {
-                                System.err.println("[NETWORK] Error configuring SSL on server: " + e.getMessage());
-                                e.printStackTrace();
-                            }
+                            SslHandler sslHandler = sslContext.newHandler(ch.alloc());
+                            pipeline.addFirst(sslHandler);
 
-                            pipeline.addLast(new LineBasedFrameDecoder(8192));
-                            pipeline.addLast(new StringDecoder(StandardCharsets.UTF_8));
-                            pipeline.addLast(new StringEncoder(StandardCharsets.UTF_8));
-                            pipeline.addLast(new ServerHandler(messageHandler));
+                            pipeline.addLast(new FrameCodec.Decoder(FrameCodec.MAX_FRAME_BYTES));
+                            pipeline.addLast(new ServerHandler(dispatcher));
                         }
                     });
 
@@ -72,6 +74,7 @@ public class P2PServer {
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            dispatcher.shutdown();
         }
     }
 }
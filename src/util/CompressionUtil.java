@@ -0,0 +1,99 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate helpers shared by the block log and the transport, with running totals for
+ * the wire so the achieved ratio can be reported.
+ */
+public class CompressionUtil {
+
+    // Deflate can only reference the last 32 KB of a preset dictionary.
+    public static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+
+    private static final AtomicLong wireRawBytes = new AtomicLong();
+    private static final AtomicLong wireCompressedBytes = new AtomicLong();
+
+    public static byte[] deflate(byte[] data, byte[] dictionary) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] inflate(byte[] data, byte[] dictionary) throws DataFormatException {
+        return inflate(data, dictionary, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Inflates data from an untrusted source, failing as soon as the output would exceed maxBytes.
+     */
+    public static byte[] inflate(byte[] data, byte[] dictionary, int maxBytes) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(maxBytes, data.length * 3L));
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new DataFormatException("Compressed data needs a dictionary");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new DataFormatException("Truncated compressed data");
+                    }
+                }
+                if (n > maxBytes - out.size()) {
+                    throw new DataFormatException("Inflated data exceeds " + maxBytes + " bytes");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public static byte[] tail(byte[] data, int maxBytes) {
+        if (data.length <= maxBytes) {
+            return data;
+        }
+        byte[] tail = new byte[maxBytes];
+        System.arraycopy(data, data.length - maxBytes, tail, 0, maxBytes);
+        return tail;
+    }
+
+    public static void recordWire(long rawBytes, long compressedBytes) {
+        wireRawBytes.addAndGet(rawBytes);
+        wireCompressedBytes.addAndGet(compressedBytes);
+    }
+
+    public static String wireStats() {
+        return ratio(wireRawBytes.get(), wireCompressedBytes.get());
+    }
+
+    public static String ratio(long rawBytes, long storedBytes) {
+        double ratio = storedBytes == 0 ? 1.0 : (double) rawBytes / storedBytes;
+        return String.format("%d -> %d bytes (%.2fx)", rawBytes, storedBytes, ratio);
+    }
+}
@@ -2,44 +2,99 @@ package util;
 
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
-import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigInteger;
 import java.security.*;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CryptoUtil {
 
+    private static final int KEY_CACHE_SIZE = Integer.getInteger("crypto.keyCacheSize", 1024);
+    private static final int SIGNATURE_CACHE_SIZE = Integer.getInteger("crypto.signatureCacheSize", 8192);
+
+    private static final Map<String, PublicKey> publicKeyCache = lruCache(KEY_CACHE_SIZE);
+    private static final Map<VerificationKey, Boolean> verificationCache = lruCache(SIGNATURE_CACHE_SIZE);
+
+    private static final AtomicLong keyCacheHits = new AtomicLong();
+    private static final AtomicLong keyCacheMisses = new AtomicLong();
+    private static final AtomicLong signatureCacheHits = new AtomicLong();
+    private static final AtomicLong signatureCacheMisses = new AtomicLong();
+
     static {
         Security.addProvider(new BouncyCastleProvider());
     }
 
-    public static KeyPair generateKeyPair() throws NoSuchAlgorithmException, NoSuchProviderException {
-        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA", "BC");
-        keyGen.initialize(2048);
-        return keyGen.generateKeyPair();
+    /**
+     * Generates a key pair for the configured scheme (crypto.scheme, Ed25519 unless set to RSA).
+     */
+    public static KeyPair generateKeyPair() throws Exception {
+        return SignatureScheme.getDefault().generateKeyPair();
     }
 
+    /**
+     * Rebuilds a stored key pair, whichever scheme it was created with.
+     */
+    public static KeyPair decodeKeyPair(byte[] x509PublicKey, byte[] pkcs8PrivateKey) throws Exception {
+        SignatureScheme scheme = SignatureScheme.forEncodedPublicKey(x509PublicKey);
+        KeyFactory keyFactory = scheme.keyFactory();
+        return new KeyPair(keyFactory.generatePublic(new X509EncodedKeySpec(x509PublicKey)),
+                keyFactory.generatePrivate(new PKCS8EncodedKeySpec(pkcs8PrivateKey)));
+    }
+
+    /**
+     * Signs with the scheme of the given key. Ed25519 signatures carry a scheme tag; RSA ones stay plain base64.
+     */
     public static String signData(byte[] data, PrivateKey privateKey) throws Exception {
-        Signature signer = Signature.getInstance("SHA256withRSA", "BC");
+        SignatureScheme scheme = SignatureScheme.forKey(privateKey);
+        Signature signer = scheme.signature();
         signer.initSign(privateKey);
         signer.update(data);
-        byte[] signature = signer.sign();
-        return Base64.getEncoder().encodeToString(signature);
+        return scheme.encode(signer.sign());
     }
 
+    /**
+     * Verifies a signature with the scheme named by its tag, which must match the key. Results are
+     * cached by (key id, message digest, signature), so the same transaction checked again on
+     * admission, consensus and block import is free.
+     */
     public static boolean verifySignature(byte[] data, String signature, PublicKey publicKey) throws Exception {
-        Signature verifier = Signature.getInstance("SHA256withRSA", "BC");
+        VerificationKey key = new VerificationKey(HashUtil.sha256Bytes(publicKey.getEncoded()), HashUtil.sha256Bytes(data), signature);
+        Boolean cached = verificationCache.get(key);
+        if (cached != null) {
+            signatureCacheHits.incrementAndGet();
+            return cached;
+        }
+        signatureCacheMisses.incrementAndGet();
+
+        boolean valid = verifyUncached(data, signature, publicKey);
+        verificationCache.put(key, valid);
+        return valid;
+    }
+
+    private static boolean verifyUncached(byte[] data, String signature, PublicKey publicKey) throws Exception {
+        SignatureScheme scheme = SignatureScheme.forSignature(signature);
+        if (scheme != SignatureScheme.forKey(publicKey)) {
+            return false;
+        }
+        Signature verifier = scheme.signature();
         verifier.initVerify(publicKey);
         verifier.update(data);
-        return verifier.verify(Base64.getDecoder().decode(signature));
+        return verifier.verify(scheme.decode(signature));
     }
 
     public static String publicKeyToBase64(PublicKey publicKey) {
@@ -47,8 +102,39 @@ public class CryptoUtil {
     }
 
     public static PublicKey base64ToPublicKey(String base64) throws Exception {
-        KeyFactory keyFactory = KeyFactory.getInstance("RSA", "BC");
-        return keyFactory.generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(base64)));
+        PublicKey cached = publicKeyCache.get(base64);
+        if (cached != null) {
+            keyCacheHits.incrementAndGet();
+            return cached;
+        }
+        keyCacheMisses.incrementAndGet();
+
+        byte[] encoded = Base64.getDecoder().decode(base64);
+        KeyFactory keyFactory = SignatureScheme.forEncodedPublicKey(encoded).keyFactory();
+        PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(encoded));
+        publicKeyCache.put(base64, publicKey);
+        return publicKey;
+    }
+
+    public static long getKeyCacheHits() {
+        return keyCacheHits.get();
+    }
+
+    public static long getKeyCacheMisses() {
+        return keyCacheMisses.get();
+    }
+
+    public static long getSignatureCacheHits() {
+        return signatureCacheHits.get();
+    }
+
+    public static long getSignatureCacheMisses() {
+        return signatureCacheMisses.get();
+    }
+
+    public static String cacheStats() {
+        return String.format("keys %d hit / %d miss, signatures %d hit / %d miss",
+                keyCacheHits.get(), keyCacheMisses.get(), signatureCacheHits.get(), signatureCacheMisses.get());
     }
 
     public static X509Certificate generateSelfSignedCertificate(KeyPair keyPair) throws Exception {
@@ -68,12 +154,54 @@ public class CryptoUtil {
                 keyPair.getPublic()
         );
 
-        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
-                .setProvider("BC")
-                .build(keyPair.getPrivate());
+        SignatureScheme scheme = SignatureScheme.forKey(keyPair.getPrivate());
+        JcaContentSignerBuilder signerBuilder = new JcaContentSignerBuilder(scheme.getSignatureAlgorithm());
+        if (scheme.getProvider() != null) {
+            signerBuilder.setProvider(scheme.getProvider());
+        }
+        ContentSigner signer = signerBuilder.build(keyPair.getPrivate());
+
+        // Parsed by the JDK provider: JDK TLS finds no signature scheme for a BC Ed25519 certificate object.
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(certBuilder.build(signer).getEncoded()));
+    }
+
+    private static <K, V> Map<K, V> lruCache(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    private static final class VerificationKey {
+        private final byte[] keyId;
+        private final byte[] messageDigest;
+        private final String signature;
+        private final int hash;
+
+        VerificationKey(byte[] keyId, byte[] messageDigest, String signature) {
+            this.keyId = keyId;
+            this.messageDigest = messageDigest;
+            this.signature = signature;
+            this.hash = 31 * (31 * Arrays.hashCode(keyId) + Arrays.hashCode(messageDigest)) + signature.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof VerificationKey)) {
+                return false;
+            }
+            VerificationKey other = (VerificationKey) o;
+            return Arrays.equals(keyId, other.keyId)
+                    && Arrays.equals(messageDigest, other.messageDigest)
+                    && signature.equals(other.signature);
+        }
 
-        return new JcaX509CertificateConverter()
-                .setProvider("BC")
-                .getCertificate(certBuilder.build(signer));
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 }
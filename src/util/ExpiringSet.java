@@ -0,0 +1,98 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set whose entries disappear a fixed time after they were added, for remembering recently
+ * seen ids. Entries are kept on a hashed timing wheel of SLOTS buckets, each covering ttl/SLOTS
+ * milliseconds, and a bucket is emptied as the wheel turns past it, so an entry lives for
+ * between ttl and ttl plus one bucket. The wheel is turned by the calls themselves and needs no
+ * thread. Once maxEntries is reached, adding a key evicts the oldest one.
+ */
+public final class ExpiringSet<K> {
+
+    private static final int SLOTS = 16;
+
+    private final long tickMs;
+    private final int maxEntries;
+    private final Set<K> entries = new HashSet<>();
+    private final ArrayDeque<K>[] wheel;
+    private long currentTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ExpiringSet(long ttlMs, int maxEntries) {
+        this.tickMs = Math.max(1, ttlMs / SLOTS);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.wheel = new ArrayDeque[SLOTS + 1];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.currentTick = now() / tickMs;
+    }
+
+    /**
+     * Adds the key unless it is already present. Returns true if it was added, so a caller can
+     * check and record a key in one step. A key that is already present keeps its original expiry.
+     */
+    public synchronized boolean add(K key) {
+        advance();
+        if (!entries.add(key)) {
+            return false;
+        }
+        wheel[slot(currentTick)].addLast(key);
+        if (entries.size() > maxEntries) {
+            evictOldest();
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(K key) {
+        advance();
+        return entries.contains(key);
+    }
+
+    public synchronized int size() {
+        advance();
+        return entries.size();
+    }
+
+    private void advance() {
+        long tick = now() / tickMs;
+        if (tick - currentTick >= wheel.length) {
+            entries.clear();
+            for (ArrayDeque<K> bucket : wheel) {
+                bucket.clear();
+            }
+            currentTick = tick;
+            return;
+        }
+        while (currentTick < tick) {
+            currentTick++;
+            ArrayDeque<K> expired = wheel[slot(currentTick)];
+            for (K key : expired) {
+                entries.remove(key);
+            }
+            expired.clear();
+        }
+    }
+
+    private void evictOldest() {
+        for (int i = 1; i <= wheel.length; i++) {
+            ArrayDeque<K> bucket = wheel[slot(currentTick + i)];
+            if (!bucket.isEmpty()) {
+                entries.remove(bucket.pollFirst());
+                return;
+            }
+        }
+    }
+
+    private int slot(long tick) {
+        return (int) (tick % wheel.length);
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,103 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 and hex helpers. Digests are kept per thread and reset after every use,
+ * so hashing does not look up a provider or allocate a new MessageDigest each time.
+ */
+public class HashUtil {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> newDigest("SHA-256"));
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> newDigest("SHA-1"));
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    public static String sha256(String input) {
+        return sha256(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String sha256(byte[] input) {
+        return toHex(sha256Bytes(input));
+    }
+
+    public static byte[] sha256Bytes(byte[]... parts) {
+        MessageDigest digest = SHA256.get();
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    public static byte[] sha256Bytes(byte[] input, int offset, int length) {
+        MessageDigest digest = SHA256.get();
+        digest.update(input, offset, length);
+        return digest.digest();
+    }
+
+    /**
+     * Hashes the remaining bytes of the buffer, leaving its position at the limit.
+     */
+    public static byte[] sha256Bytes(ByteBuffer input) {
+        MessageDigest digest = SHA256.get();
+        digest.update(input);
+        return digest.digest();
+    }
+
+    public static byte[] sha1Bytes(byte[] input) {
+        return SHA1.get().digest(input);
+    }
+
+    public static String toHex(byte[] bytes) {
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    public static String toHex(byte[] bytes, int offset, int length) {
+        char[] hex = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = bytes[offset + i] & 0xff;
+            hex[2 * i] = HEX_DIGITS[b >>> 4];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    public static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) ((hexValue(hex.charAt(2 * i)) << 4) | hexValue(hex.charAt(2 * i + 1)));
+        }
+        return result;
+    }
+
+    /**
+     * Value of one hex digit, either case.
+     */
+    public static int hexValue(char c) {
+        int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hex character: " + c);
+        }
+        return value;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(algorithm + " algorithm not available", e);
+        }
+    }
+}
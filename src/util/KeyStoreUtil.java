@@ -2,7 +2,9 @@ package util;
 
 import java.io.*;
 import java.security.*;
-import java.security.spec.*;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Base64;
 
 public class KeyStoreUtil {
@@ -21,16 +23,10 @@ public class KeyStoreUtil {
                 byte[] pubBytes = Base64.getDecoder().decode(readFile(pubFile));
                 byte[] privBytes = Base64.getDecoder().decode(readFile(privFile));
 
-                KeyFactory kf = KeyFactory.getInstance("RSA");
-                PublicKey pubKey = kf.generatePublic(new X509EncodedKeySpec(pubBytes));
-                PrivateKey privKey = kf.generatePrivate(new PKCS8EncodedKeySpec(privBytes));
-
-                return new KeyPair(pubKey, privKey);
+                return CryptoUtil.decodeKeyPair(pubBytes, privBytes);
             }
 
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-            keyGen.initialize(2048);
-            KeyPair keyPair = keyGen.generateKeyPair();
+            KeyPair keyPair = CryptoUtil.generateKeyPair();
 
             writeFile(pubFile, Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
             writeFile(privFile, Base64.getEncoder().encodeToString(keyPair.getPrivate().getEncoded()));
@@ -43,6 +39,41 @@ public class KeyStoreUtil {
         }
     }
 
+    /**
+     * Returns the stored self-signed certificate for this key pair, issuing a new one if it is
+     * missing, expired or was issued for a different key.
+     */
+    public static X509Certificate loadOrCreateCertificate(String userId, KeyPair keyPair) {
+        try {
+            File folder = new File(KEY_FOLDER);
+            if (!folder.exists()) folder.mkdirs();
+
+            File certFile = new File(KEY_FOLDER + userId + ".crt");
+
+            if (certFile.exists()) {
+                byte[] certBytes = Base64.getDecoder().decode(readFile(certFile));
+                CertificateFactory cf = CertificateFactory.getInstance("X.509");
+                X509Certificate cert = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(certBytes));
+                try {
+                    cert.checkValidity();
+                    if (Arrays.equals(cert.getPublicKey().getEncoded(), keyPair.getPublic().getEncoded())) {
+                        return cert;
+                    }
+                } catch (GeneralSecurityException e) {
+                    System.out.println("[KEYSTORE] Stored certificate expired for " + userId + ". Issuing a new one.");
+                }
+            }
+
+            X509Certificate cert = CryptoUtil.generateSelfSignedCertificate(keyPair);
+            writeFile(certFile, Base64.getEncoder().encodeToString(cert.getEncoded()));
+            System.out.println("[KEYSTORE] Certificate issued for: " + userId);
+            return cert;
+
+        } catch (Exception e) {
+            throw new RuntimeException("[KEYSTORE] Failed to load or create certificate for " + userId, e);
+        }
+    }
+
     private static String readFile(File file) throws IOException {
         BufferedReader br = new BufferedReader(new FileReader(file));
         return br.readLine();
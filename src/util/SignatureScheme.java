@@ -0,0 +1,107 @@
+package util;
+
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Signature algorithms a node key can use. RSA signatures are plain base64, as they always were;
+ * other schemes prefix theirs with a tag, so verifiers pick the right algorithm and blocks signed
+ * before the tag existed still verify. Ed25519 runs on the JDK's own provider; RSA stays on
+ * BouncyCastle, which also builds the X.509 certificates.
+ */
+public enum SignatureScheme {
+    RSA("RSA", "SHA256withRSA", "", "BC"),
+    ED25519("Ed25519", "Ed25519", "ed25519:", null);
+
+    // X.509 SubjectPublicKeyInfo header of every Ed25519 key (OID 1.3.101.112); the 32 key bytes follow.
+    private static final byte[] ED25519_KEY_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+
+    private final String keyAlgorithm;
+    private final String signatureAlgorithm;
+    private final String tag;
+    private final String provider;
+
+    SignatureScheme(String keyAlgorithm, String signatureAlgorithm, String tag, String provider) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.tag = tag;
+        this.provider = provider;
+    }
+
+    /**
+     * Scheme for newly created node keys. Existing keys keep the scheme they were created with.
+     */
+    public static SignatureScheme getDefault() {
+        return valueOf(System.getProperty("crypto.scheme", "ED25519").toUpperCase());
+    }
+
+    public static SignatureScheme forKey(Key key) {
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return RSA;
+            case "Ed25519":
+            case "EdDSA":
+                return ED25519;
+            default:
+                throw new IllegalArgumentException("Unsupported key algorithm: " + key.getAlgorithm());
+        }
+    }
+
+    public static SignatureScheme forEncodedPublicKey(byte[] x509) {
+        if (x509.length == ED25519_KEY_PREFIX.length + 32
+                && Arrays.equals(x509, 0, ED25519_KEY_PREFIX.length, ED25519_KEY_PREFIX, 0, ED25519_KEY_PREFIX.length)) {
+            return ED25519;
+        }
+        return RSA;
+    }
+
+    public static SignatureScheme forSignature(String signature) {
+        return signature.startsWith(ED25519.tag) ? ED25519 : RSA;
+    }
+
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * JCA provider for this scheme, or null for the JDK default.
+     */
+    public String getProvider() {
+        return provider;
+    }
+
+    public String encode(byte[] signature) {
+        return tag + Base64.getEncoder().encodeToString(signature);
+    }
+
+    public byte[] decode(String signature) {
+        return Base64.getDecoder().decode(signature.substring(tag.length()));
+    }
+
+    KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator keyGen = provider == null
+                ? KeyPairGenerator.getInstance(keyAlgorithm)
+                : KeyPairGenerator.getInstance(keyAlgorithm, provider);
+        if (this == RSA) {
+            keyGen.initialize(2048);
+        }
+        return keyGen.generateKeyPair();
+    }
+
+    KeyFactory keyFactory() throws Exception {
+        return provider == null ? KeyFactory.getInstance(keyAlgorithm) : KeyFactory.getInstance(keyAlgorithm, provider);
+    }
+
+    Signature signature() throws Exception {
+        return provider == null ? Signature.getInstance(signatureAlgorithm) : Signature.getInstance(signatureAlgorithm, provider);
+    }
+}
@@ -1,15 +1,30 @@
 package util;
 
+import io.netty.handler.ssl.OpenSsl;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 
+/**
+ * TLS contexts for the P2P transport. Contexts are meant to be built once per node and shared by
+ * every connection. Both sides keep a session cache, so a peer reconnecting within the timeout
+ * resumes its session (TLS 1.3 tickets, or the TLS 1.2 session cache) instead of redoing the
+ * full handshake. net.tls.provider=openssl selects netty-tcnative when it is on the classpath.
+ */
 public class TLSUtil {
 
+    private static final long SESSION_CACHE_SIZE = Long.getLong("net.tls.sessionCacheSize", 1024L);
+    private static final long SESSION_TIMEOUT_SECONDS = Long.getLong("net.tls.sessionTimeoutSeconds", 3600L);
+    private static final SslProvider PROVIDER = selectProvider(System.getProperty("net.tls.provider", "jdk"));
+
     public static SslContext createServerContext(X509Certificate certificate, PrivateKey privateKey) throws Exception {
         return SslContextBuilder
                 .forServer(privateKey, certificate)
+                .sslProvider(PROVIDER)
+                .sessionCacheSize(SESSION_CACHE_SIZE)
+                .sessionTimeout(SESSION_TIMEOUT_SECONDS)
                 .build();
     }
 
@@ -18,6 +33,25 @@ public class TLSUtil {
         return SslContextBuilder
                 .forClient()
                 .trustManager(io.netty.handler.ssl.util.InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(PROVIDER)
+                .sessionCacheSize(SESSION_CACHE_SIZE)
+                .sessionTimeout(SESSION_TIMEOUT_SECONDS)
                 .build();
     }
+
+    public static SslProvider getProvider() {
+        return PROVIDER;
+    }
+
+    private static SslProvider selectProvider(String name) {
+        if (!name.equalsIgnoreCase("openssl")) {
+            return SslProvider.JDK;
+        }
+        if (OpenSsl.isAvailable()) {
+            System.out.println("[NETWORK] Using native TLS provider: " + OpenSsl.versionString());
+            return SslProvider.OPENSSL;
+        }
+        System.err.println("[NETWORK] Native TLS provider unavailable (" + OpenSsl.unavailabilityCause() + "). Falling back to JDK TLS.");
+        return SslProvider.JDK;
+    }
 }
@@ -0,0 +1,47 @@
+package ledger;
+
+import consensus.PoWConsensus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.CryptoUtil;
+
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockchainSyncTest {
+
+    @Test
+    void independentlyStartedNodesSync(@TempDir Path nodeA, @TempDir Path nodeB) throws Exception {
+        BlockchainStorage.reopenAt(nodeA);
+        Blockchain a = new Blockchain();
+        KeyPair key = CryptoUtil.generateKeyPair();
+        PoWConsensus pow = new PoWConsensus();
+        for (int i = 0; i < 3; i++) {
+            Block block = pow.generateNextBlock(List.of(transaction(key, i)), a, key).join();
+            assertTrue(a.importBlocks(a.getChain().size(), List.of(block), pow));
+        }
+
+        BlockchainStorage.reopenAt(nodeB);
+        Blockchain b = new Blockchain();
+        assertEquals(1, b.getChain().size());
+        assertEquals(a.getChain().get(0).getHash(), b.getChain().get(0).getHash());
+
+        List<Block> blocks = a.getChain();
+        assertTrue(b.importBlocks(1, blocks.subList(1, blocks.size()), pow));
+        assertEquals(a.getLatestBlock().getHash(), b.getLatestBlock().getHash());
+        BlockchainStorage.flush();
+    }
+
+    private static Transaction transaction(KeyPair key, int i) throws Exception {
+        String payload = "bid " + i;
+        long timestamp = System.currentTimeMillis();
+        String signature = CryptoUtil.signData(Transaction.signingBytes("A", payload, timestamp), key.getPrivate());
+        Transaction tx = new Transaction("A", payload, timestamp, signature);
+        tx.setPublicKey(CryptoUtil.publicKeyToBase64(key.getPublic()));
+        return tx;
+    }
+}